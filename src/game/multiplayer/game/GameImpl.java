@@ -23,8 +23,14 @@ package game.multiplayer.game;
 
 
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import game.multiplayer.containers.Client;
 import game.multiplayer.containers.Game;
@@ -32,26 +38,81 @@ import game.multiplayer.interfaces.MultiplayerGameFrame;
 import game.multiplayer.interfaces.WordMoleClient;
 import game.multiplayer.interfaces.WordMoleServer;
 import game.states.PlayerState;
+import server.PlayerSeats;
+import server.SessionRegistry;
 import server.WordMoleServerImpl;
 import server.callbacks.AsyncCallback;
 import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
+import server.callbacks.Delivery;
 import server.callbacks.Notifier;
+import server.dictionary.Lexicon;
 
 /**
  * This class represents the Game Implementation of the Remote Interface for the 
  * WordMoleServer.
+ * 
+ * Every game is an actor: the remote calls only post events to the game's
+ * lane on the AsyncCallback, and the events run there one at a time and in
+ * order. The game's state is only touched on its lane, so it needs no
+ * locks, and games only wait on each other for a free thread.
+ * 
+ * If the server has a dictionary, players can submit their words instead
+ * of their score. The words are checked and scored right on the calling
+ * thread, since the dictionary takes any number of readers, and only the
+ * points go through the game's lane, where they are added to the total.
+ * 
+ * Players are known by their seat, the order they have in the Game, and
+ * everything the game keeps per player is an array indexed by seat, the
+ * frames that broadcasts go to as well. The Client a call brings along is
+ * only used to find the seat, through the player key, see PlayerSeats.
  * @author Chris Barton
  */
-public class GameImpl extends UnicastRemoteObject implements game.multiplayer.interfaces.Game{
-	private static final long serialVersionUID = -3401400218005293018L;
-	
-	private int num_players, players_in_session = 0;
-	private boolean inSession = false;
+public class GameImpl implements game.multiplayer.interfaces.Game, WordGame, SessionRegistry.Expirable, SessionRegistry.Measurable{
+	private int num_players;
 	private Game thisGame;
 	private WordMoleServer server;
 	private AsyncCallback clientCallback;
-	private ArrayList<Client> clientList;
-	private ArrayList<MultiplayerGameFrame> multList;
+	private SessionRegistry sessions;
+	private game.multiplayer.interfaces.Game ref;
+	private long tickInterval;
+	private PlayerSeats seats;
+	private AtomicIntegerArray pendingScores;
+	private AtomicBoolean tickScheduled = new AtomicBoolean();
+	private Lexicon lexicon;
+	private AtomicReferenceArray<Tally> tallies;
+	
+	// Only touched on the game's lane
+	private int players_in_session = 0;
+	private int players_arrived = 0;
+	private int players_forfeited = 0;
+	private boolean started = false;
+	private boolean inSession = false;
+	private MultiplayerGameFrame[] frames;
+	private boolean[] arrived;
+	
+	/** Time a player gets to take a game update. */
+	public static final long PLAYER_TIMEOUT = AsyncCallback.TEN_SECONDS;
+	/** Marks a seat with no score waiting for the next tick. */
+	private static final int NO_SCORE = Integer.MIN_VALUE;
+	/**
+	 * Size of a game without its per seat arrays: the GameImpl, its
+	 * AtomicBoolean and the AtomicIntegerArray and AtomicReferenceArray
+	 * around the arrays.
+	 */
+	private static final int GAME_BYTES = 88 + 16 + 16 + 16;
+	/** Size of an empty Tally: the Tally and the set. */
+	private static final int TALLY_BYTES = 24 + 24 + 64 + 80;
+	
+	/**
+	 * The words a player submitted and the score the server keeps for it.
+	 * The words are taken on any thread, the score is only added up on the
+	 * game's lane.
+	 */
+	private static class Tally {
+		final Set<String> found = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		int score = 0;
+	}
 	
 	/**
 	 * Constructor
@@ -60,21 +121,52 @@ public class GameImpl extends UnicastRemoteObject implements game.multiplayer.in
 	 * @throws RemoteException 
 	 */
 	public GameImpl(Game game, WordMoleServer server, AsyncCallback cb) throws RemoteException{
-		super();
+		this(game, server, cb, 0);
+	}
+	
+	/**
+	 * Constructor for the tick mode. Score changes are collected and sent
+	 * out once per tick, only the latest score of each player, so the calls
+	 * to the players are bounded by the tick rate and not by how fast the
+	 * players score.
+	 * @param game - Game containing this Game.
+	 * @param server - WordMoleServer
+	 * @param cb - AsyncCallback
+	 * @param tickInterval - long - Time between score pushes in milliseconds,
+	 * 0 to push every change at once.
+	 * @throws RemoteException 
+	 */
+	public GameImpl(Game game, WordMoleServer server, AsyncCallback cb, long tickInterval) throws RemoteException{
 		thisGame = game;
 		this.server = server;
 		num_players = game.getPlayers().length;
 		clientCallback = cb;
+		this.tickInterval = tickInterval;
+		sessions = ((WordMoleServerImpl) server).getSessions();
+		lexicon = ((WordMoleServerImpl) server).getLexicon();
 		
-		clientList = new ArrayList<Client>();
-		multList = new ArrayList<MultiplayerGameFrame>();
-		for ( Client player : thisGame.getPlayers() ){
-			WordMoleClient client = ((WordMoleServerImpl) server).getClient(player);
+		seats = new PlayerSeats((WordMoleServerImpl) server, game.getPlayers());
+		pendingScores = new AtomicIntegerArray(num_players);
+		for ( int i = 0; i < num_players; i++ )
+			pendingScores.set(i, NO_SCORE);
+		tallies = new AtomicReferenceArray<Tally>(num_players);
+		frames = new MultiplayerGameFrame[num_players];
+		arrived = new boolean[num_players];
+		ref = (game.multiplayer.interfaces.Game) sessions.add(this, SessionRegistry.Kind.GAME, num_players);
+		for ( int i = 0; i < num_players; i++ ){
+			Client player = seats.get(i);
+			WordMoleClient client = ((WordMoleServerImpl) server).getClient(seats.key(i));
 			
+			// Left the server before the game came together.
+			if ( client == null ){
+				forfeit(i);
+				continue;
+			}
 			try{
-				client.receiveGame(this);
+				client.receiveGame(ref);
 				updateClientState(player, PlayerState.PLAYING);
 			} catch(RemoteException re){
+				forfeit(i);
 				try{
 					server.register(client, player, false);
 				} catch (RemoteException e){
@@ -84,6 +176,15 @@ public class GameImpl extends UnicastRemoteObject implements game.multiplayer.in
 		}
 	}
 	
+	/**
+	 * Returns what the clients get for this game: its stub, or its proxy
+	 * if sessions are multiplexed.
+	 * @return Game
+	 */
+	public game.multiplayer.interfaces.Game getReference(){
+		return ref;
+	}
+	
 	/**
 	 * Updates the clients state.
 	 * @param client - Client - client to be updated.
@@ -94,35 +195,92 @@ public class GameImpl extends UnicastRemoteObject implements game.multiplayer.in
 		((WordMoleServerImpl)server).updateClient(client);
 	}
 
-	public synchronized void register(final Client client, final MultiplayerGameFrame mult, boolean connected) throws RemoteException {
-		Callback cb = null;
-		
-		if ( !connected ){
-			clientList.remove(client);
-			multList.remove(mult);
-			cb = new Callback(){ 
-				public void executeCallback(Notifier n, Object arg){
-					removePlayer(client);
-					n.resetCallbackTime();
-				}
-			};
-		} 
+	public void register(final Client client, final MultiplayerGameFrame mult, final boolean connected) throws RemoteException {
+		sessions.touch(this);
+		final int seat = seats.seatOf(client);
+		
+		if ( seat < 0 )
+			throw new RemoteException(client.name + " is not in this game");
+		((WordMoleServerImpl)server).seen(client);
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){ 
+			public void executeCallback(Notifier n, Object arg){
+				if ( connected )
+					join(seat, mult);
+				else
+					leave(seat, mult);
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
 	
-		else {
-			clientList.add(client);
-			multList.add(mult);
-			if ( ++players_in_session == num_players ){
-			inSession = true;
-			cb = new Callback(){ 
-				public void executeCallback(Notifier n, Object arg){
-					startGame();
-					n.resetCallbackTime();
-				}
-			};
+	/**
+	 * Adds a player, and starts the game once every seat is taken. A player
+	 * that joins again only swaps its frame.
+	 */
+	private void join(int seat, MultiplayerGameFrame mult){
+		if ( frames[seat] == null )
+			players_in_session++;
+		frames[seat] = mult;
+		
+		if ( !arrived[seat] ){
+			arrived[seat] = true;
+			players_arrived++;
 		}
+		startIfReady();
+	}
+	
+	/**
+	 * Starts the game once every seat that was not given up is taken.
+	 */
+	private void startIfReady(){
+		if ( !started && players_in_session > 0
+				&& players_in_session == num_players - players_forfeited ){
+			started = true;
+			inSession = true;
+			sessions.setState(this, SessionRegistry.State.PLAYING);
+			startGame();
 		}
-		if ( cb != null ){
-			clientCallback.doCallback(cb);
+	}
+	
+	/**
+	 * Gives up the seat of a player that could not be sent the game, so the
+	 * others do not wait for it. The seat counts as arrived and gone.
+	 * @param seat - int - Seat of the player.
+	 */
+	private void forfeit(final int seat){
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
+			public void executeCallback(Notifier n, Object arg){
+				if ( !arrived[seat] ){
+					arrived[seat] = true;
+					players_arrived++;
+					players_forfeited++;
+				}
+				if ( players_in_session == 0 && players_arrived == num_players )
+					sessions.finish(GameImpl.this);
+				else
+					startIfReady();
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	/**
+	 * Takes a player out of its seat and tells the others. A frame the seat
+	 * no longer has, e.g. one that failed before the player joined again,
+	 * is ignored.
+	 */
+	private void leave(int seat, MultiplayerGameFrame mult){
+		if ( frames[seat] == null || !frames[seat].equals(mult) )
+			return;
+		
+		frames[seat] = null;
+		players_in_session--;
+		removePlayer(seats.get(seat));
+		
+		// Everyone came and has gone again, whether the game started or not.
+		if ( players_in_session == 0 && players_arrived == num_players ){
+			inSession = false;
+			sessions.finish(this);
 		}
 	}
 	
@@ -130,47 +288,135 @@ public class GameImpl extends UnicastRemoteObject implements game.multiplayer.in
 	 * Starts up the game.
 	 */
 	public void startGame(){
-		for ( int i = 0; i < clientList.size(); i++ ){
-			try {
-				multList.get(i).startGame();
-			} catch (RemoteException e) {
-				try {
-					register(clientList.get(i), multList.get(i), false);
-					((WordMoleServerImpl)server).register(clientList.get(i), false);
-				} catch (RemoteException e1) {
-					e1.printStackTrace();
-				}
+		broadcast(new Delivery<MultiplayerGameFrame>(){
+			public void deliver(MultiplayerGameFrame mult) throws RemoteException{
+				mult.startGame();
 			}
-		}
+		});
 	}
 	
 	/**
 	 * Removes a player from the game.
 	 * @param client - Client to be removed
 	 */
-	public synchronized void removePlayer(Client client){
-		for ( int i = 0; i < multList.size(); i++ ){
-			try{
-				multList.get(i).disconnectPlayer(client);
-			} catch ( RemoteException re){
-				try {
-					register(clientList.get(i), multList.get(i), false);
-					((WordMoleServerImpl)server).register(clientList.get(i), false);
-				} catch (RemoteException e) {
-					e.printStackTrace();
-				}
-				
+	public void removePlayer(final Client client){
+		broadcast(new Delivery<MultiplayerGameFrame>(){
+			public void deliver(MultiplayerGameFrame mult) throws RemoteException{
+				mult.disconnectPlayer(client);
 			}
-		}
+		});
+	}
+	
+	/**
+	 * Sends something to all players at once, without holding the game up,
+	 * and then drops every player that failed or did not answer in time.
+	 * The players are the frames of the taken seats, so a failure comes
+	 * back with its seat.
+	 * @param delivery - Delivery - Sends it to one player.
+	 */
+	private void broadcast(Delivery<MultiplayerGameFrame> delivery){
+		Exception[] failed = clientCallback.broadcast(frames, delivery, PLAYER_TIMEOUT);
+		
+		for ( int seat = 0; seat < failed.length; seat++ )
+			if ( failed[seat] != null )
+				dropPlayer(seat, frames[seat]);
+	}
+	
+	/**
+	 * Unregisters a player that could not be reached. The player leaves in
+	 * an event of its own, after the one that is running.
+	 * @param seat - int - Seat of the player that failed.
+	 * @param mult - MultiplayerGameFrame - Frame that failed.
+	 */
+	private void dropPlayer(final int seat, final MultiplayerGameFrame mult){
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
+			public void executeCallback(Notifier n, Object arg){
+				leave(seat, mult);
+				n.resetCallbackTime();
+			}
+		}, null);
+		((WordMoleServerImpl)server).register(seats.get(seat), false);
 	}
 
 	public void updateScore(final Client client, final int score) throws RemoteException {
-		clientCallback.doCallback(new Callback(){
+		sessions.touch(this);
+		int seat = seats.seatOf(client);
+		
+		if ( seat < 0 )
+			return;
+		((WordMoleServerImpl)server).seen(client);
+		
+		// The server keeps the score of players that submit their words.
+		if ( tallies.get(seat) != null )
+			return;
+		postScore(seat, score);
+	}
+	
+	public int submitWord(Client client, String word) throws RemoteException {
+		sessions.touch(this);
+		if ( lexicon == null )
+			throw new RemoteException("The server has no dictionary");
+		int seat = seats.seatOf(client);
+		if ( seat < 0 )
+			throw new RemoteException(client.name + " is not in this game");
+		((WordMoleServerImpl)server).seen(client);
+		
+		word = word.toLowerCase(Locale.ENGLISH);
+		int points = lexicon.score(word);
+		if ( points == 0 )
+			return 0;
+		
+		Tally tally = tallies.get(seat);
+		if ( tally == null ){
+			tallies.compareAndSet(seat, null, new Tally());
+			tally = tallies.get(seat);
+		}
+		if ( !tally.found.add(word) )
+			return 0;
+		
+		addPoints(seat, tally, points);
+		return points;
+	}
+	
+	/**
+	 * Adds the points of a word to a player's total on the game's lane and
+	 * passes the total on, so the totals go out in the order they were
+	 * reached and a player never sees its score go down.
+	 * @param seat - int - Seat of the player.
+	 * @param tally - Tally - The player's tally.
+	 * @param points - int - Points of the word.
+	 */
+	private void addPoints(final int seat, final Tally tally, final int points){
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
+			public void executeCallback(Notifier n, Object args){
+				tally.score += points;
+				if ( tickInterval > 0 )
+					queueScore(seat, tally.score);
+				else
+					update(seats.get(seat), tally.score);
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	/**
+	 * Passes a new score on to the players, at the next tick or at once.
+	 * @param seat - int - Seat of the player whose score changed.
+	 * @param score - new score.
+	 */
+	private void postScore(int seat, final int score){
+		if ( tickInterval > 0 ){
+			queueScore(seat, score);
+			return;
+		}
+		
+		final Client client = seats.get(seat);
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
 			public void executeCallback(Notifier n, Object args){
 				update(client, score);
 				n.resetCallbackTime();
 			}
-		});
+		}, null);
 	}
 	
 	/**
@@ -178,47 +424,147 @@ public class GameImpl extends UnicastRemoteObject implements game.multiplayer.in
 	 * @param client
 	 * @param score
 	 */
-	public synchronized void update(Client client, int score){
-		for ( int i = 0; i < multList.size(); i++ ){
-			try{
-				multList.get(i).updateScore(client, score);
-			} catch ( RemoteException re){
-				try {
-					register(clientList.get(i), multList.get(i), false);
-					((WordMoleServerImpl)server).register(clientList.get(i), false);
-				} catch (RemoteException e) {
-					e.printStackTrace();
+	public void update(final Client client, final int score){
+		broadcast(new Delivery<MultiplayerGameFrame>(){
+			public void deliver(MultiplayerGameFrame mult) throws RemoteException{
+				mult.updateScore(client, score);
+			}
+		});
+	}
+
+	/**
+	 * Keeps the latest score of a player for the next tick, and starts the
+	 * tick if it is not running yet.
+	 * @param seat - int - Seat of the player whose score changed.
+	 * @param score - latest score.
+	 */
+	private void queueScore(int seat, int score){
+		pendingScores.set(seat, score);
+		if ( !tickScheduled.compareAndSet(false, true) )
+			return;
+		
+		clientCallback.getTimer().schedule(new Runnable(){
+			public void run(){
+				clientCallback.doCallbackOn(GameImpl.this, CallbackPriority.GAME, new Callback(){
+					public void executeCallback(Notifier n, Object args){
+						flushScores();
+						n.resetCallbackTime();
+					}
+				}, null);
+			}
+		}, tickInterval);
+	}
+	
+	/**
+	 * Sends out the scores collected since the last tick as one scoreboard.
+	 */
+	public void flushScores(){
+		int [] changed = new int[num_players];
+		int [] latest = new int[num_players];
+		int count = 0;
+		
+		// A score that comes in from here on starts the next tick.
+		tickScheduled.set(false);
+		for ( int i = 0; i < num_players; i++ ){
+			int score = pendingScores.getAndSet(i, NO_SCORE);
+			if ( score != NO_SCORE ){
+				changed[count] = i;
+				latest[count++] = score;
+			}
+		}
+		
+		if ( count == 0 )
+			return;
+		
+		final Client [] clients = new Client[count];
+		final int [] scores = Arrays.copyOf(latest, count);
+		for ( int i = 0; i < count; i++ )
+			clients[i] = seats.get(changed[i]);
+		
+		broadcast(new Delivery<MultiplayerGameFrame>(){
+			public void deliver(MultiplayerGameFrame mult) throws RemoteException{
+				if ( mult instanceof Scoreboard ){
+					((Scoreboard)mult).updateScores(clients, scores);
+					return;
 				}
 				
+				for ( int i = 0; i < clients.length; i++ )
+					mult.updateScore(clients[i], scores[i]);
 			}
-		}
+		});
 	}
 
-	public synchronized void winGame(final Client winner) throws RemoteException {
-		if ( inSession ){
-			clientCallback.doCallback(new Callback(){
-				public void executeCallback(Notifier n, Object args){
+	public void winGame(Client client) throws RemoteException {
+		int seat = seats.seatOf(client);
+		final Client winner = (seat >= 0) ? seats.get(seat) : client;
+		
+		if ( seat >= 0 )
+			((WordMoleServerImpl)server).seen(client);
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
+			public void executeCallback(Notifier n, Object args){
+				if ( inSession ){
+					inSession = false;
+					// The final scores go out before the winner.
+					flushScores();
 					sendWinner(winner);
-					n.resetCallbackTime();
+					sessions.finish(GameImpl.this);
 				}
-			});
-			inSession = false;
-		}
+				n.resetCallbackTime();
+			}
+		}, null);
 	}
 	
-	public void sendWinner(Client winner){
-		for ( int i = 0; i < multList.size(); i++ ){
-			try{
-				multList.get(i).notifyWinner(winner);
-			} catch ( RemoteException re){
-				try {
-					register(clientList.get(i), multList.get(i), false);
-					((WordMoleServerImpl)server).register(clientList.get(i), false);
-				} catch (RemoteException e) {
-					e.printStackTrace();
+	public void sendWinner(final Client winner){
+		broadcast(new Delivery<MultiplayerGameFrame>(){
+			public void deliver(MultiplayerGameFrame mult) throws RemoteException{
+				mult.notifyWinner(winner);
+			}
+		});
+	}
+
+	/**
+	 * Ends a game nobody has played for too long. The players still seated,
+	 * and those that never came, go back to the lobby as CONNECTED, and the
+	 * others hear about it through the roster.
+	 */
+	public void expire(){
+		clientCallback.doCallbackOn(this, CallbackPriority.GAME, new Callback(){
+			public void executeCallback(Notifier n, Object args){
+				inSession = false;
+				for ( int seat = 0; seat < num_players; seat++ ){
+					if ( frames[seat] != null || !arrived[seat] ){
+						frames[seat] = null;
+						updateClientState(seats.get(seat), PlayerState.CONNECTED);
+					}
 				}
+				players_in_session = 0;
+				sessions.finish(GameImpl.this);
+				n.resetCallbackTime();
 			}
+		}, null);
+	}
+	
+	/**
+	 * Returns a rough size of the game in bytes: the game itself, the seats
+	 * and the arrays kept per seat, and the words the players submitted.
+	 * @return long
+	 */
+	public long estimatedBytes(){
+		long bytes = GAME_BYTES + seats.estimatedBytes()
+			+ SessionRegistry.arrayBytes(num_players, 4)
+			+ 2 * SessionRegistry.arrayBytes(num_players, SessionRegistry.REFERENCE_BYTES)
+			+ SessionRegistry.arrayBytes(num_players, 1);
+		
+		for ( int i = 0; i < num_players; i++ ){
+			Tally tally = tallies.get(i);
+			
+			if ( tally == null )
+				continue;
+			bytes += TALLY_BYTES;
+			for ( String word : tally.found )
+				bytes += SessionRegistry.MAP_ENTRY_BYTES + 24 + SessionRegistry.arrayBytes(word.length(), 2);
 		}
+		return bytes;
 	}
 
 	public Game getGame() throws RemoteException {
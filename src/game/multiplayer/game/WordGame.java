@@ -0,0 +1,45 @@
+/*
+ * WordGame.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package game.multiplayer.game;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * Games that check and score the words themselves. A player that submits
+ * its words here has its score kept by the server, and whatever it sends
+ * to updateScore() from then on is ignored.
+ * @author Chris Barton
+ */
+public interface WordGame extends Remote {
+	/**
+	 * Checks a word against the server's dictionary and adds its points to
+	 * the player's score. Words the player already found score nothing.
+	 * @param client - Client - Player that found the word.
+	 * @param word - String - Word that was found.
+	 * @return int - Points for the word, 0 if it does not count.
+	 */
+	public int submitWord(Client client, String word) throws RemoteException;
+}
@@ -20,11 +20,15 @@
  */
 package game.multiplayer.invitation;
 
-import server.WordMoleClientList;
+import server.PlayerSeats;
+import server.SessionRegistry;
 import server.WordMoleServerImpl;
 import server.callbacks.AsyncCallback;
 import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
+import server.callbacks.Delivery;
 import server.callbacks.Notifier;
+import server.callbacks.TimingWheel;
 import game.multiplayer.containers.Client;
 import game.multiplayer.containers.Game;
 import game.multiplayer.containers.Invite;
@@ -34,25 +38,48 @@ import game.multiplayer.interfaces.WordMoleServer;
 import game.states.PlayerState;
 
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
-import java.util.Iterator;
 import java.util.Vector;
 
 /**
  * This class represents the Invitation Implementation of the Remote Interface for the 
  * WordMoleServer.
+ * 
+ * Like a game, the invitation runs its events on its own callback lane and
+ * its state is only touched there. The invitees get the invitation all at
+ * once, and they have until the vote deadline to answer; whoever has not
+ * by then counts as a rejection and the invitation starts or cancels on
+ * its own, so nobody is left WAITING. Like a game, it keeps the invitees
+ * by seat, see PlayerSeats.
  * @author Chris Barton
  */
-public class InvitationImpl extends UnicastRemoteObject implements Invitation{
-	private static final long serialVersionUID = -3701348241375867326L;
-	
-	private WordMoleClientList clientList;
-	private WordMoleClient host;
+public class InvitationImpl implements Invitation, SessionRegistry.Expirable, SessionRegistry.Measurable{
 	private WordMoleServer server;
 	private Invite thisInvite;
-	private Vector<Client> acceptedClients;
 	private AsyncCallback clientCallback;
-	private int clientsLeftToVote;
+	private SessionRegistry sessions;
+	private Invitation ref;
+	private long voteTimeout;
+	private volatile int clientsLeftToVote;
+	private PlayerSeats seats;
+	
+	// Only touched on the invitation's lane
+	private WordMoleClient host;
+	private Client hostPlayer;
+	private WordMoleClient[] invitees;
+	private boolean[] pendingVotes;
+	private Vector<Client> acceptedClients;
+	private TimingWheel.Timeout deadline;
+	private boolean finished = false;
+	
+	/** Time the invitees get to receive the invitation. */
+	public static final long INVITE_TIMEOUT = AsyncCallback.TEN_SECONDS;
+	/** Time the invitees get to vote. */
+	public static final long VOTE_TIMEOUT = AsyncCallback.SIXTY_SECONDS;
+	/**
+	 * Size of an invitation without its per seat arrays: the
+	 * InvitationImpl, its Vector and the deadline's Timeout.
+	 */
+	private static final int INVITATION_BYTES = 80 + 24 + 40;
 	
 	/**
 	 * Constructor
@@ -62,51 +89,97 @@ public class InvitationImpl extends UnicastRemoteObject implements Invitation{
 	 * @throws RemoteException 
 	 */
 	public InvitationImpl(Invite invite, WordMoleServer server, AsyncCallback callback) throws RemoteException{
-		super();
+		this(invite, server, callback, VOTE_TIMEOUT);
+	}
+	
+	/**
+	 * Constructor
+	 * @param invite - Invite that this server is based on.
+	 * @param server - WordMoleServer main server
+	 * @param callback - AsyncCallback
+	 * @param voteTimeout - long - Time the invitees get to vote, in milliseconds.
+	 * @throws RemoteException 
+	 */
+	public InvitationImpl(Invite invite, WordMoleServer server, AsyncCallback callback, long voteTimeout) throws RemoteException{
 		this.server = server;
 		thisInvite = invite;
 		clientCallback = callback;
+		this.voteTimeout = voteTimeout;
 		clientsLeftToVote = invite.getNumInvitees();
+		seats = new PlayerSeats((WordMoleServerImpl) server, invite.getInvitees());
+		sessions = ((WordMoleServerImpl) server).getSessions();
+		ref = (Invitation) sessions.add(this, SessionRegistry.Kind.INVITATION, invite.getNumInvitees() + 1);
 		
 		//register for async callback
-	      clientCallback.doCallback(new Callback() {
+	      clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
 	         public void executeCallback(Notifier n, Object arg) {
 	          	setupInvitation();
 	            n.resetCallbackTime();
 	         }
-	      });
+	      }, null);
 	}
 	
 	/**
-	 * Sets up the Invitation.
+	 * Sets up the Invitation: sends it to all invitees at once and starts
+	 * the vote deadline. Invitees that cannot be reached reject it.
 	 */
 	public void setupInvitation(){
-		clientList = new WordMoleClientList();
+		final WordMoleServerImpl wms = (WordMoleServerImpl) server;
+		
 		acceptedClients = new Vector<Client>();
+		invitees = new WordMoleClient[seats.size()];
+		pendingVotes = new boolean[seats.size()];
 		
-		host = ((WordMoleServerImpl) server).getClient(thisInvite.getHost());
-		updateClientState(thisInvite.getHost(), PlayerState.WAITING);
+		hostPlayer = wms.intern(thisInvite.getHost());
+		host = wms.getClient(hostPlayer);
+		updateClientState(hostPlayer, PlayerState.WAITING);
 		
-		acceptedClients.add(thisInvite.getHost());
-
-		for ( Client invitee : thisInvite.getInvitees() ){
-			WordMoleClient client = ((WordMoleServerImpl) server).getClient(invitee);
+		acceptedClients.add(hostPlayer);
+		
+		for ( int i = 0; i < invitees.length; i++ ){
+			invitees[i] = wms.getClient(seats.key(i));
+			pendingVotes[i] = true;
+		}
+		
+		Exception[] failed = clientCallback.broadcast(invitees,
+			new Delivery<WordMoleClient>(){
+				public void deliver(WordMoleClient client) throws RemoteException{
+					client.receiveInvite(ref);
+				}
+			}, INVITE_TIMEOUT);
+		
+		for ( int i = 0; i < invitees.length; i++ ){
+			WordMoleClient client = invitees[i];
 			
-			try{
-				client.receiveInvite(this);
-				clientList.add(client, invitee);
-				updateClientState(invitee, PlayerState.WAITING);
-			} catch(RemoteException re){
-				try {
-					// If server cannot reach client, then its an auto-reject.
-					makeDecision(invitee, false);
-					server.register(client, invitee, false);
-				} catch (RemoteException e) {
-					e.printStackTrace();
-				} 
+			if ( client != null && failed[i] == null ){
+				updateClientState(seats.get(i), PlayerState.WAITING);
+				continue;
 			}
-		}
 			
+			// If server cannot reach client, then its an auto-reject.
+			invitees[i] = null;
+			decide(i, false);
+			if ( client != null )
+				wms.register(seats.get(i), false);
+		}
+		
+		if ( !finished ){
+			deadline = clientCallback.schedule(this, CallbackPriority.INVITATION, new Callback() {
+				public void executeCallback(Notifier n, Object arg) {
+					voteTimedOut();
+					n.resetCallbackTime();
+				}
+			}, null, voteTimeout);
+		}
+	}
+	
+	/**
+	 * Returns what the clients get for this invitation: its stub, or its
+	 * proxy if sessions are multiplexed.
+	 * @return Invitation
+	 */
+	public Invitation getReference(){
+		return ref;
 	}
 	
 	/**
@@ -120,53 +193,158 @@ public class InvitationImpl extends UnicastRemoteObject implements Invitation{
 	}
 	
 	public void initializeGame(final boolean initialize) throws RemoteException {
+		sessions.touch(this);
+		// Only the host starts the game.
+		((WordMoleServerImpl)server).seen(thisInvite.getHost());
 		//register for async callback
-	      clientCallback.doCallback(new Callback() {
+	      clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
 	         public void executeCallback(Notifier n, Object arg) {
 	          	gameTime(initialize);
 	            n.resetCallbackTime();
 	         }
-	      });
+	      }, null);
 	}
 	
+	/**
+	 * Starts the game with everyone who accepted, or cancels the invitation.
+	 * Invitees that have not voted yet are sent away either way. Only the
+	 * first call counts.
+	 * @param init - boolean - true to start the game.
+	 */
 	public void gameTime(boolean init){
-		WordMoleClient c = null;
-		try{
-			if ( !init ){
-				updateClientState(thisInvite.getHost(), PlayerState.CONNECTED);
-				for ( Iterator<WordMoleClient> it = clientList.iterator(); it.hasNext(); ){
-					c = it.next();
-					c.cancelInvite();
-					updateClientState(clientList.get(c), PlayerState.CONNECTED);
-				}
-			}else{
-				Game game = new Game(acceptedClients.toArray(new Client[0]));
+		if ( finished )
+			return;
+		finished = true;
+		if ( deadline != null )
+			deadline.cancel();
+		
+		if ( init ){
+			Game game = new Game(acceptedClients.toArray(new Client[0]));
+			try {
 				server.createGame(game);
+			} catch (RemoteException e) {
+				e.printStackTrace();
 			}
-		} catch (RemoteException re){
-			if ( c != null )
+		} else
+			updateClientState(hostPlayer, PlayerState.CONNECTED);
+		
+		// Invitees still waiting, and the ones who accepted a cancelled game.
+		WordMoleClient [] sendAway = new WordMoleClient[invitees.length];
+		for ( int i = 0; i < invitees.length; i++ )
+			if ( invitees[i] != null && (pendingVotes[i] || !init) && seats.get(i) != hostPlayer )
+				sendAway[i] = invitees[i];
+		
+		Exception[] failed = clientCallback.broadcast(sendAway,
+			new Delivery<WordMoleClient>(){
+				public void deliver(WordMoleClient client) throws RemoteException{
+					client.cancelInvite();
+				}
+			}, INVITE_TIMEOUT);
+		
+		for ( int i = 0; i < sendAway.length; i++ ){
+			WordMoleClient client = sendAway[i];
+			Client c = seats.get(i);
+			
+			if ( client == null )
+				continue;
+			if ( failed[i] != null ){
 				try {
-					server.register(c, clientList.get(c), false);
+					server.register(client, c, false);
 				} catch (RemoteException e) {
 					e.printStackTrace();
 				}
+			} else
+				updateClientState(c, PlayerState.CONNECTED);
 		}
+		sessions.finish(this);
+	}
+	
+	/**
+	 * Counts the missing votes as rejections once the deadline has passed,
+	 * and starts the game if anyone accepted, or cancels it if nobody did.
+	 */
+	private void voteTimedOut(){
+		if ( finished )
+			return;
+		
+		for ( int i = 0; i < pendingVotes.length; i++ )
+			decide(i, false);
+		
+		if ( !finished )
+			gameTime(acceptedClients.size() > 1);
+	}
+	
+	/**
+	 * Returns a rough size of the invitation in bytes: the invitation
+	 * itself, the seats and the arrays kept per seat. The sizes come from
+	 * the seats since the arrays are only set up on the lane.
+	 * @return long
+	 */
+	public long estimatedBytes(){
+		int n = seats.size();
+		
+		return INVITATION_BYTES + seats.estimatedBytes()
+			+ SessionRegistry.arrayBytes(n, SessionRegistry.REFERENCE_BYTES)
+			+ SessionRegistry.arrayBytes(n, 1)
+			+ SessionRegistry.arrayBytes(Math.max(10, n), SessionRegistry.REFERENCE_BYTES);
+	}
+	
+	/**
+	 * Cancels an invitation nobody has answered for too long.
+	 */
+	public void expire(){
+		clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				gameTime(false);
+				n.resetCallbackTime();
+			}
+		}, null);
 	}
 
-	public synchronized void makeDecision(final Client client, boolean decision) throws RemoteException {
+	public void makeDecision(final Client client, final boolean decision) throws RemoteException {
+		sessions.touch(this);
+		final int seat = seats.seatOf(client);
+		
+		if ( seat < 0 )
+			throw new RemoteException(client.name + " is not invited");
+		((WordMoleServerImpl)server).seen(client);
+		//register for async callback
+	      clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
+	         public void executeCallback(Notifier n, Object arg) {
+	          	decide(seat, decision);
+	            n.resetCallbackTime();
+	         }
+	      }, null);
+	}
+	
+	/**
+	 * Records a vote and passes it on to the host. Votes after the deadline
+	 * and second votes are ignored.
+	 * @param seat - int - Seat of the invitee that voted.
+	 * @param decision - boolean - true if the invitee accepted.
+	 */
+	private void decide(int seat, boolean decision){
+		if ( finished || !pendingVotes[seat] )
+			return;
+		pendingVotes[seat] = false;
+		
+		Client client = seats.get(seat);
 		if ( decision )
 			acceptedClients.add(client);
-		else{
-			//register for async callback
-		      clientCallback.doCallback(new Callback() {
-		         public void executeCallback(Notifier n, Object arg) {
-		          	updateClientState(client, PlayerState.CONNECTED);
-		            n.resetCallbackTime();
-		         }
-		      });
+		else if ( invitees[seat] != null ){
+			invitees[seat] = null;
+			updateClientState(client, PlayerState.CONNECTED);
 		}
 		clientsLeftToVote--;
-		host.receiveInviteDecision(client, decision);
+		
+		try {
+			if ( host == null )
+				throw new RemoteException("Host is gone");
+			host.receiveInviteDecision(client, decision);
+		} catch (RemoteException re){
+			// Nobody left to start the game.
+			gameTime(false);
+		}
 	}
 	
 	public Invite getInvite() throws RemoteException{
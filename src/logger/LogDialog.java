@@ -0,0 +1,61 @@
+/*
+ * LogDialog.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package logger;
+
+import java.awt.Frame;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * A dialog box listing what the Logger logs. The messages come in on the
+ * log thread and are put into the list on the event thread.
+ */
+@SuppressWarnings("serial")
+public class LogDialog extends JDialog implements Logger.Listener {
+   DefaultListModel fModel = new DefaultListModel();
+   JList fLog = new JList(fModel);
+   
+   public LogDialog(Frame owner) {
+      super(owner, "Log");
+      
+      JScrollPane sp = new JScrollPane(fLog);
+      getContentPane().add(sp);
+      
+      setSize(200, 300);
+      pack();
+   }
+   
+   public void logged(final Object msg) {
+      SwingUtilities.invokeLater(new Runnable() {
+         public void run() {
+            fModel.addElement(msg);
+            if (fModel.size() > Logger.BACKLOG) {
+               fModel.remove(0);
+            }
+         }
+      });
+   }
+}
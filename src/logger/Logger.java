@@ -20,10 +20,6 @@
  */
 
 package logger;
-import javax.swing.DefaultListModel;
-import javax.swing.JDialog;
-import javax.swing.JList;
-import javax.swing.JScrollPane;
 
 import server.WordMoleServerImpl;
 import server.callbacks.AsyncCallback;
@@ -31,30 +27,42 @@ import server.callbacks.Callback;
 import server.callbacks.Notifier;
 
 /**
- * An asynchrous logging class that places messages in a list displayed by a
- * dialog box. Messages are logged asynchronously using a minimum priority
- * thread, which allows the server to quickly respond to client requests
- * without being bogged down by I/O.
+ * An asynchrous logging class. Messages are logged asynchronously using a
+ * minimum priority thread, which allows the server to quickly respond to
+ * client requests without being bogged down by I/O. Every message goes to
+ * standard out, so the server can run without a display, and to the
+ * Listener if one is attached, e.g. a LogDialog.
+ *
+ * The last BACKLOG messages are kept, so a Listener that is attached later
+ * still gets what was logged before it.
  */
-public class Logger extends JDialog implements Callback {
+public class Logger implements Callback {
    //asynchronous logging with pool of one thread at lowest priority
    //not all thread pools have to be big - having one thread ensures
    //log entries are serialized
 	
    AsyncCallback fLogCallback = new AsyncCallback(Thread.MIN_PRIORITY, 1);
    WordMoleServerImpl fServer;
-   JList fLog = new JList(new DefaultListModel());
+   
+   // Only touched by the log thread
+   private final Object[] fRecent = new Object[BACKLOG];
+   private int fCount = 0;
+   private Listener fListener;
+   
+   /** Number of messages kept for a Listener attached later. */
+   public static final int BACKLOG = 500;
+   
+   /**
+    * Receives the messages, on the log thread.
+    */
+   public interface Listener {
+      public void logged(Object msg);
+   }
    
    public Logger(WordMoleServerImpl server) {
       fServer = server;
       
       fLogCallback.start();
-      
-      JScrollPane sp = new JScrollPane(fLog);
-      getContentPane().add(sp);
-      
-      setSize(200, 300);
-      pack();
    }
    
    public void log(String msg) {
@@ -65,10 +73,40 @@ public class Logger extends JDialog implements Callback {
       fLogCallback.doCallback(this, ex);
    }
    
+   /**
+    * Attaches a Listener, which first gets the messages kept so far. It is
+    * done on the log thread, so no message is missed or sent twice.
+    * @param listener - Listener - Replaces the one attached before, null
+    *    detaches it.
+    */
+   public void attach(final Listener listener) {
+      fLogCallback.doCallback(new Callback() {
+         public void executeCallback(Notifier n, Object arg) {
+            if (listener != null) {
+               int start = Math.max(0, fCount - BACKLOG);
+               for (int i=start; i<fCount; i++) {
+                  listener.logged(fRecent[i % BACKLOG]);
+               }
+            }
+            fListener = listener;
+         }
+      }, null);
+   }
+   
+   /**
+    * Stops the log thread. Messages logged after that are lost.
+    */
+   public void stop() {
+      fLogCallback.stop();
+   }
+   
    public void executeCallback(Notifier n, Object arg) {
-      ((DefaultListModel)fLog.getModel()).addElement(arg);
-      fLog.repaint();
+      System.out.println(arg);
+      fRecent[fCount++ % BACKLOG] = arg;
+      if (fCount == 2 * BACKLOG) fCount = BACKLOG;
+      
+      if (fListener != null) {
+         fListener.logged(arg);
+      }
    }
 }
-    
-    
\ No newline at end of file
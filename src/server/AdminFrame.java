@@ -0,0 +1,177 @@
+/*
+ * AdminFrame.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server;
+
+import game.multiplayer.containers.Client;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+
+import logger.LogDialog;
+
+/**
+ * The server's window: the players that are connected and the log. It is
+ * only an observer of the server, which runs the same without it. The
+ * player list follows the RosterSnapshots the server publishes, and
+ * changes that come in before the event thread gets to them fold into one
+ * refresh.
+ * @author Chris Barton
+ */
+@SuppressWarnings("serial")
+public class AdminFrame extends JFrame implements RosterObserver {
+	private final DefaultListModel playerListModel = new DefaultListModel();
+	private final AtomicBoolean playerListDirty = new AtomicBoolean();
+	private RosterSnapshot roster;
+	
+	/**
+	 * Opens the window of a server on the event thread.
+	 * @param server - WordMoleServerImpl - Server to watch.
+	 */
+	public static void open(final WordMoleServerImpl server){
+		SwingUtilities.invokeLater(new Runnable(){
+			public void run(){
+				new AdminFrame(server).setVisible(true);
+			}
+		});
+	}
+	
+	/**
+	 * Constructor, must run on the event thread.
+	 * @param server - WordMoleServerImpl - Server to watch.
+	 */
+	public AdminFrame(WordMoleServerImpl server){
+		super("Word Mole Server");
+		setLayout(new BoxLayout(getContentPane(), BoxLayout.Y_AXIS));
+		
+		JPanel northPnl = new JPanel();
+		northPnl.setLayout(new BoxLayout(northPnl, BoxLayout.X_AXIS));
+		JLabel header = new JLabel("Word Mole Server Platform");
+		northPnl.add(header);
+		
+		JList playerList = new PlayerList(playerListModel);
+		playerList.setMaximumSize(new Dimension(300, 400 ));
+		
+		add(northPnl);
+		add(playerList);
+		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		setSize(new Dimension(300,450));
+		
+		LogDialog log = new LogDialog(this);
+		server.getLogger().attach(log);
+		log.setVisible(true);
+		
+		server.setRosterObserver(this);
+		rosterChanged(server.getRoster());
+	}
+	
+	public void rosterChanged(RosterSnapshot snapshot){
+		synchronized(this){
+			if ( roster != null && roster.getVersion() >= snapshot.getVersion() )
+				return;
+			roster = snapshot;
+		}
+		if ( playerListDirty.getAndSet(true) )
+			return;
+		
+		SwingUtilities.invokeLater(new Runnable(){
+			public void run(){
+				playerListDirty.set(false);
+				RosterSnapshot snapshot;
+				synchronized(AdminFrame.this){
+					snapshot = roster;
+				}
+				
+				playerListModel.clear();
+				for ( Client client : snapshot.getClients() )
+					playerListModel.addElement(client);
+			}
+		});
+	}
+	
+	/**
+	 * The player list, with the server icon faded in behind the players.
+	 */
+	private static class PlayerList extends JList {
+		// Only touched on the event thread
+		private static BufferedImage backdrop;
+		private static boolean backdropLoaded = false;
+		
+		PlayerList(ListModel model){
+			super(model);
+		}
+		
+		public void paintComponent(Graphics g){
+			super.paintComponent(g);
+			
+			// Give it an outline
+			g.setColor(Color.BLACK);
+			g.drawRect(0, 0, getWidth()-1, getHeight()-1);
+			
+			// Give it the back image, centered.
+			BufferedImage img = backdrop(getGraphicsConfiguration());
+			if ( img != null )
+				g.drawImage(img, getWidth()/2-img.getWidth()+19, getHeight()/2-img.getHeight(), null);
+		}
+		
+		/**
+		 * Returns the icon with the transparency laid over it. It is read
+		 * and faded on the first paint and reused after that.
+		 * @param gc - GraphicsConfiguration - Screen the list is on, may be null.
+		 * @return BufferedImage, null if the icon cannot be read.
+		 */
+		private static BufferedImage backdrop(GraphicsConfiguration gc){
+			if ( backdropLoaded )
+				return backdrop;
+			backdropLoaded = true;
+			
+			URL url = AdminFrame.class.getResource("images/icon.png");
+			if ( url == null )
+				return null;
+			try {
+				BufferedImage img = ImageIO.read(url);
+				BufferedImage faded = (gc != null)
+					? gc.createCompatibleImage(img.getWidth(), img.getHeight(), Transparency.TRANSLUCENT)
+					: new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+				Graphics2D g = faded.createGraphics();
+				g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f)); // Overlay the transparency
+				g.drawImage(img, 0, 0, null);
+				g.dispose();
+				backdrop = faded;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return backdrop;
+		}
+	}
+}
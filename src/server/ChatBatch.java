@@ -0,0 +1,78 @@
+/*
+ * ChatBatch.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The chat lines waiting to go out to one client. Lines are collected
+ * for a short window and then sent as one text, so a busy lobby costs
+ * each client one call per window instead of one per message. A client
+ * that is far behind loses its oldest lines.
+ * @author Chris Barton
+ */
+public class ChatBatch {
+	private Queue<String> lines = new ConcurrentLinkedQueue<String>();
+	private AtomicInteger size = new AtomicInteger();
+	private AtomicBoolean scheduled = new AtomicBoolean();
+	
+	/**
+	 * Adds a line, dropping the oldest one if there are too many.
+	 * @param line - String - Formatted line.
+	 * @param max - int - Most lines kept.
+	 * @return true if no send is pending and the caller has to schedule one.
+	 */
+	public boolean add(String line, int max){
+		lines.add(line);
+		if ( size.incrementAndGet() > max && lines.poll() != null )
+			size.decrementAndGet();
+		return scheduled.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Takes all waiting lines. A line added from here on needs a new send.
+	 * @return String - The lines as one text, null if there were none.
+	 */
+	public String drain(){
+		scheduled.set(false);
+		
+		String line = lines.poll();
+		if ( line == null )
+			return null;
+		size.decrementAndGet();
+		
+		String next = lines.poll();
+		if ( next == null )
+			return line;
+		
+		StringBuilder text = new StringBuilder(line);
+		do {
+			size.decrementAndGet();
+			text.append(next);
+		} while ( (next = lines.poll()) != null );
+		return text.toString();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * ChatHistory.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+/**
+ * The last lines of lobby chat, so clients that join or come back from a
+ * game can be shown what was said. The lines sit in a fixed ring, so
+ * keeping them costs no allocation past the line itself, and the replay
+ * text is built once and shared until the next line comes in.
+ * @author Chris Barton
+ */
+public class ChatHistory {
+	private final String [] lines;
+	private long count = 0;
+	private String replay;
+	
+	/**
+	 * Constructor
+	 * @param capacity - int - Number of lines kept.
+	 */
+	public ChatHistory(int capacity){
+		if ( capacity < 1 )
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		lines = new String[capacity];
+	}
+	
+	/**
+	 * Adds a line, pushing out the oldest one if the history is full.
+	 * @param line - String - Formatted line.
+	 */
+	public synchronized void add(String line){
+		lines[(int)(count++ % lines.length)] = line;
+		replay = null;
+	}
+	
+	/**
+	 * Number of lines kept.
+	 * @return int
+	 */
+	public synchronized int size(){
+		return (int)Math.min(count, lines.length);
+	}
+	
+	/**
+	 * Returns the kept lines, oldest first, as one text.
+	 * @return String, null if nothing was said yet.
+	 */
+	public synchronized String replay(){
+		if ( replay == null && count > 0 ){
+			StringBuilder text = new StringBuilder();
+			
+			for ( long i = Math.max(0, count - lines.length); i < count; i++ )
+				text.append(lines[(int)(i % lines.length)]);
+			replay = text.toString();
+		}
+		return replay;
+	}
+}
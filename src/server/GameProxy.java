@@ -0,0 +1,77 @@
+/*
+ * GameProxy.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Game;
+import game.multiplayer.game.WordGame;
+import game.multiplayer.interfaces.MultiplayerGameFrame;
+
+/**
+ * What a client gets for a multiplexed game: the game's id and the shared
+ * SessionDispatcher. It is sent by value, so a game costs no export of
+ * its own.
+ * @author Chris Barton
+ */
+public class GameProxy implements game.multiplayer.interfaces.Game, WordGame, Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final long id;
+	private final SessionDispatcher dispatcher;
+	
+	public GameProxy(long id, SessionDispatcher dispatcher){
+		this.id = id;
+		this.dispatcher = dispatcher;
+	}
+	
+	public void register(Client client, MultiplayerGameFrame mult, boolean connected) throws RemoteException{
+		dispatcher.gameRegister(id, client, mult, connected);
+	}
+	
+	public void updateScore(Client client, int score) throws RemoteException{
+		dispatcher.gameUpdateScore(id, client, score);
+	}
+	
+	public int submitWord(Client client, String word) throws RemoteException{
+		return dispatcher.gameSubmitWord(id, client, word);
+	}
+	
+	public void winGame(Client winner) throws RemoteException{
+		dispatcher.gameWinGame(id, winner);
+	}
+	
+	public Game getGame() throws RemoteException{
+		return dispatcher.gameGetGame(id);
+	}
+	
+	public boolean equals(Object o){
+		return o instanceof GameProxy && ((GameProxy)o).id == id;
+	}
+	
+	public int hashCode(){
+		return (int)(id ^ (id >>> 32));
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * InvitationProxy.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Invite;
+import game.multiplayer.interfaces.Invitation;
+
+/**
+ * What a client gets for a multiplexed invitation: the invitation's id and
+ * the shared SessionDispatcher. It is sent by value, so an invitation
+ * costs no export of its own.
+ * @author Chris Barton
+ */
+public class InvitationProxy implements Invitation, Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final long id;
+	private final SessionDispatcher dispatcher;
+	
+	public InvitationProxy(long id, SessionDispatcher dispatcher){
+		this.id = id;
+		this.dispatcher = dispatcher;
+	}
+	
+	public void initializeGame(boolean initialize) throws RemoteException{
+		dispatcher.inviteInitializeGame(id, initialize);
+	}
+	
+	public void makeDecision(Client client, boolean decision) throws RemoteException{
+		dispatcher.inviteMakeDecision(id, client, decision);
+	}
+	
+	public Invite getInvite() throws RemoteException{
+		return dispatcher.inviteGetInvite(id);
+	}
+	
+	public boolean ready() throws RemoteException{
+		return dispatcher.inviteReady(id);
+	}
+	
+	public boolean equals(Object o){
+		return o instanceof InvitationProxy && ((InvitationProxy)o).id == id;
+	}
+	
+	public int hashCode(){
+		return (int)(id ^ (id >>> 32));
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Liveness.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.interfaces.WordMoleClient;
+
+import server.callbacks.AsyncCallback;
+import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
+import server.callbacks.Notifier;
+
+/**
+ * Keeps track of which WordMoleClients are still there. Every call from a
+ * client and every update it takes counts as a sign of life. Clients that
+ * have been quiet for a while are probed, and clients that fail a call or
+ * do not answer a probe in time are suspected. Suspected clients are
+ * skipped by broadcasts and evicted together on the next sweep, so an
+ * outage costs one player list broadcast instead of one per client.
+ * @author Chris Barton
+ */
+public class Liveness {
+	private WordMoleServerImpl server;
+	private WordMoleClientList clientList;
+	private AsyncCallback clientCallback;
+	private ConcurrentHashMap<WordMoleClient, Session> sessions;
+	private volatile boolean stopped = false;
+	
+	/** Time between sweeps. */
+	public static final long SWEEP_INTERVAL = 5000;
+	/** Time a client may be quiet before it is probed. */
+	public static final long IDLE_TIME = AsyncCallback.THIRTY_SECONDS;
+	/** Time a client gets to answer a probe. */
+	public static final long PROBE_TIMEOUT = AsyncCallback.TEN_SECONDS;
+	
+	/**
+	 * What is known about one client. Times are System.currentTimeMillis(),
+	 * 0 meaning never.
+	 */
+	private static class Session {
+		volatile long lastSeen;
+		volatile long probeStarted;
+		volatile long suspectedSince;
+		
+		Session(long now){
+			lastSeen = now;
+		}
+	}
+	
+	private final Runnable sweeper = new Runnable() {
+		public void run() {
+			if ( !stopped ){
+				sweep();
+				clientCallback.getTimer().schedule(this, SWEEP_INTERVAL);
+			}
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param server - WordMoleServerImpl - Server the expired clients are evicted from.
+	 * @param clientList - WordMoleClientList - Clients to watch.
+	 * @param cb - AsyncCallback - Runs the probes.
+	 */
+	public Liveness(WordMoleServerImpl server, WordMoleClientList clientList, AsyncCallback cb){
+		this.server = server;
+		this.clientList = clientList;
+		clientCallback = cb;
+		sessions = new ConcurrentHashMap<WordMoleClient, Session>();
+	}
+	
+	public void start(){
+		stopped = false;
+		clientCallback.getTimer().schedule(sweeper, SWEEP_INTERVAL);
+	}
+	
+	public void stop(){
+		stopped = true;
+	}
+	
+	private Session session(WordMoleClient client){
+		Session s = sessions.get(client);
+		
+		if ( s == null ){
+			Session created = new Session(System.currentTimeMillis());
+			s = sessions.putIfAbsent(client, created);
+			if ( s == null )
+				s = created;
+		}
+		return s;
+	}
+	
+	/**
+	 * Records a sign of life from a client.
+	 * @param client - WordMoleClient - Client, null is ignored.
+	 */
+	public void seen(WordMoleClient client){
+		if ( client == null )
+			return;
+		
+		Session s = session(client);
+		s.lastSeen = System.currentTimeMillis();
+		s.suspectedSince = 0;
+	}
+	
+	/**
+	 * Records a sign of life from a client.
+	 * @param client - Client - Client, unknown ones are ignored.
+	 */
+	public void seen(Client client){
+		seen(clientList.get(client));
+	}
+	
+	/**
+	 * Marks a client as probably dead, e.g. after a call to it failed. It is
+	 * evicted on the next sweep unless it shows up again first.
+	 * @param client - WordMoleClient - Client that failed.
+	 */
+	public void suspect(WordMoleClient client){
+		Session s = session(client);
+		
+		if ( s.suspectedSince == 0 )
+			s.suspectedSince = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Tells whether a client is suspected dead, so broadcasts can skip it.
+	 * @param client - WordMoleClient
+	 * @return boolean
+	 */
+	public boolean isSuspected(WordMoleClient client){
+		Session s = sessions.get(client);
+		
+		return s != null && s.suspectedSince != 0;
+	}
+	
+	/**
+	 * Probes idle clients and evicts the suspected ones. Runs on the timer
+	 * thread, so it only queues work.
+	 */
+	private void sweep(){
+		long now = System.currentTimeMillis();
+		final ArrayList<WordMoleClient> expired = new ArrayList<WordMoleClient>();
+		
+		for ( Iterator<WordMoleClient> it = clientList.iterator(); it.hasNext(); ){
+			WordMoleClient client = it.next();
+			Session s = session(client);
+			
+			if ( s.suspectedSince == 0 && s.probeStarted != 0
+					&& now - s.probeStarted > PROBE_TIMEOUT ){
+				s.suspectedSince = now;
+			}
+			
+			if ( s.suspectedSince != 0 )
+				expired.add(client);
+			else if ( s.probeStarted == 0 && now - s.lastSeen > IDLE_TIME )
+				probe(client, s, now);
+		}
+		
+		// Forget clients that left the list.
+		for ( Iterator<WordMoleClient> it = sessions.keySet().iterator(); it.hasNext(); ){
+			if ( clientList.get(it.next()) == null )
+				it.remove();
+		}
+		
+		if ( !expired.isEmpty() ){
+			clientCallback.doCallbackOn(this, CallbackPriority.ROSTER, new Callback() {
+				public void executeCallback(Notifier n, Object arg) {
+					server.evict(expired);
+					n.resetCallbackTime();
+				}
+			}, null);
+		}
+	}
+	
+	/**
+	 * Queues a probe on the client's lane, behind anything it still has to
+	 * take. A probe that is stuck there counts as unanswered.
+	 */
+	private void probe(final WordMoleClient client, final Session s, long now){
+		s.probeStarted = now;
+		clientCallback.doCallbackOn(client, CallbackPriority.ROSTER, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				try{
+					if ( client instanceof Heartbeat )
+						((Heartbeat)client).ping();
+					else
+						server.probe(client);
+					seen(client);
+				}catch (RemoteException re){
+					suspect(client);
+				}
+				s.probeStarted = 0;
+				n.resetCallbackTime();
+			}
+		}, null, PROBE_TIMEOUT);
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * MatchQueue.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Game;
+import game.states.PlayerState;
+
+import server.callbacks.AsyncCallback;
+import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
+import server.callbacks.Notifier;
+import server.callbacks.TimingWheel;
+
+/**
+ * The matchmaking queue behind the Matchmaker interface. Joining and
+ * leaving only post an event to the queue's lane; the matching itself runs
+ * there once per cycle and puts together all the games it can from
+ * everyone who is waiting, so a match costs each player one call in and
+ * one receiveGame() out.
+ * 
+ * Players are compatible if they want the same number of players. Rated
+ * players are matched with rated players close to their rating, and the
+ * allowed spread grows the longer the longest waiter of a group has been
+ * waiting, so nobody waits forever for a perfect match. Unrated players
+ * are matched with each other in the order they came.
+ * @author Chris Barton
+ */
+public class MatchQueue implements Matchmaker {
+	private WordMoleServerImpl server;
+	private AsyncCallback clientCallback;
+	private AsyncCallback gameCallback;
+	private long cycleInterval;
+	
+	// Only touched on the queue's lane
+	private HashMap<Client, Ticket> tickets = new HashMap<Client, Ticket>();
+	private TimingWheel.Timeout cycle;
+	// Written on the queue's lane, read anywhere
+	private volatile int waiting = 0;
+	
+	/** Rating of players that did not give one. */
+	public static final int UNRATED = -1;
+	/** Time between matching cycles. */
+	public static final long MATCH_CYCLE = 250;
+	/** Rating spread allowed in a group right away. */
+	public static final int RATING_SPREAD = 100;
+	/** Rating spread added for every second the longest waiter has waited. */
+	public static final int SPREAD_PER_SECOND = 25;
+	
+	/**
+	 * One player waiting for a game.
+	 */
+	private static class Ticket {
+		final Client client;
+		final int players;
+		final int rating;
+		final long joined;
+		
+		Ticket(Client client, int players, int rating, long joined){
+			this.client = client;
+			this.players = players;
+			this.rating = rating;
+			this.joined = joined;
+		}
+	}
+	
+	private static final Comparator<Ticket> BY_RATING = new Comparator<Ticket>() {
+		public int compare(Ticket a, Ticket b) {
+			if ( a.rating != b.rating )
+				return a.rating < b.rating ? -1 : 1;
+			return a.joined < b.joined ? -1 : (a.joined == b.joined ? 0 : 1);
+		}
+	};
+	
+	private static final Comparator<Ticket> BY_ARRIVAL = new Comparator<Ticket>() {
+		public int compare(Ticket a, Ticket b) {
+			return a.joined < b.joined ? -1 : (a.joined == b.joined ? 0 : 1);
+		}
+	};
+	
+	private final Callback matcher = new Callback() {
+		public void executeCallback(Notifier n, Object arg) {
+			cycle = null;
+			match();
+			scheduleCycle();
+			n.resetCallbackTime();
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param server - WordMoleServerImpl - Server the players are registered with.
+	 * @param clientCallback - AsyncCallback - Runs the queue's lane.
+	 * @param gameCallback - AsyncCallback - Sets up the matched games.
+	 * @param cycleInterval - long - Time between matching cycles in milliseconds.
+	 */
+	public MatchQueue(WordMoleServerImpl server, AsyncCallback clientCallback,
+			AsyncCallback gameCallback, long cycleInterval){
+		this.server = server;
+		this.clientCallback = clientCallback;
+		this.gameCallback = gameCallback;
+		this.cycleInterval = cycleInterval;
+	}
+	
+	public void joinQueue(Client client, int players) throws RemoteException{
+		joinQueue(client, players, UNRATED);
+	}
+	
+	public void joinQueue(final Client client, int players, int rating) throws RemoteException{
+		if ( players < 2 )
+			throw new IllegalArgumentException("Invalid number of players: " + players);
+		
+		final Ticket ticket = new Ticket(client, players, Math.max(rating, UNRATED),
+				System.currentTimeMillis());
+		clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				join(ticket);
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	public void leaveQueue(final Client client) throws RemoteException{
+		clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				leave(client);
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	/**
+	 * Takes players that went into a game some other way, e.g. through an
+	 * invitation, out of the queue. Their state is left to the game.
+	 * @param players - Client[] - Players of the game.
+	 */
+	public void removePlayers(final Client [] players){
+		clientCallback.doCallbackOn(this, CallbackPriority.INVITATION, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				for ( Client player : players )
+					tickets.remove(player);
+				waiting = tickets.size();
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	/**
+	 * Number of players waiting, as of the last change on the queue's lane.
+	 * @return int
+	 */
+	public int size(){
+		return waiting;
+	}
+	
+	/**
+	 * Queues a player. Only a player in the lobby may join; one that is
+	 * queued already may change its ticket.
+	 */
+	private void join(Ticket ticket){
+		if ( server.getClient(ticket.client) == null )
+			return;
+		if ( !tickets.containsKey(ticket.client)
+				&& !PlayerState.CONNECTED.equals(server.intern(ticket.client).state) )
+			return;
+		
+		tickets.put(ticket.client, ticket);
+		waiting = tickets.size();
+		updateClientState(ticket.client, PlayerState.WAITING);
+		scheduleCycle();
+	}
+	
+	private void leave(Client client){
+		if ( tickets.remove(client) != null && server.getClient(client) != null )
+			updateClientState(client, PlayerState.CONNECTED);
+		waiting = tickets.size();
+	}
+	
+	private void scheduleCycle(){
+		if ( cycle == null && !tickets.isEmpty() )
+			cycle = clientCallback.schedule(this, CallbackPriority.INVITATION, matcher, null, cycleInterval);
+	}
+	
+	/**
+	 * Updates the clients state.
+	 * @param client - Client - client to be updated.
+	 * @param state - PlayerState - state to be updated.
+	 */
+	private void updateClientState(Client client, PlayerState state){
+		client.state = state;
+		server.updateClient(client);
+	}
+	
+	/**
+	 * Puts together every game it can from the players that are waiting.
+	 */
+	private void match(){
+		long now = System.currentTimeMillis();
+		HashMap<Integer, List<Ticket>> rated = new HashMap<Integer, List<Ticket>>();
+		HashMap<Integer, List<Ticket>> unrated = new HashMap<Integer, List<Ticket>>();
+		
+		for ( Iterator<Ticket> it = tickets.values().iterator(); it.hasNext(); ){
+			Ticket ticket = it.next();
+			
+			// Gone since it joined, or in a game already.
+			if ( server.getClient(ticket.client) == null
+					|| PlayerState.PLAYING.equals(server.intern(ticket.client).state) ){
+				it.remove();
+				continue;
+			}
+			
+			HashMap<Integer, List<Ticket>> pools = ticket.rating == UNRATED ? unrated : rated;
+			List<Ticket> pool = pools.get(ticket.players);
+			if ( pool == null ){
+				pool = new ArrayList<Ticket>();
+				pools.put(ticket.players, pool);
+			}
+			pool.add(ticket);
+		}
+		
+		for ( List<Ticket> pool : rated.values() ){
+			Collections.sort(pool, BY_RATING);
+			matchRated(pool, now);
+		}
+		for ( List<Ticket> pool : unrated.values() ){
+			int size = pool.get(0).players;
+			
+			Collections.sort(pool, BY_ARRIVAL);
+			for ( int i=0; i + size <= pool.size(); i += size )
+				startGame(pool.subList(i, i + size));
+		}
+		waiting = tickets.size();
+	}
+	
+	/**
+	 * Groups players of one game size by rating. Walks the players in rating
+	 * order and takes the next group whose spread is within what its longest
+	 * waiter allows.
+	 * @param pool - List<Ticket> - Players sorted by rating.
+	 * @param now - long - Time of this cycle.
+	 */
+	private void matchRated(List<Ticket> pool, long now){
+		int size = pool.get(0).players;
+		int i = 0;
+		
+		while ( i + size <= pool.size() ){
+			List<Ticket> group = pool.subList(i, i + size);
+			long oldest = now;
+			
+			for ( Ticket ticket : group )
+				oldest = Math.min(oldest, ticket.joined);
+			
+			long spread = RATING_SPREAD + SPREAD_PER_SECOND * ((now - oldest) / 1000);
+			if ( group.get(size-1).rating - group.get(0).rating <= spread ){
+				startGame(group);
+				i += size;
+			} else
+				i++;
+		}
+	}
+	
+	/**
+	 * Takes a group out of the queue and sets up its game off the queue's
+	 * lane, so slow players do not hold up the matching.
+	 * @param group - List<Ticket> - Players of the game.
+	 */
+	private void startGame(List<Ticket> group){
+		final Client [] players = new Client[group.size()];
+		long now = System.currentTimeMillis();
+		long waited = 0;
+		
+		for ( int i=0; i<players.length; i++ ){
+			Ticket ticket = group.get(i);
+			
+			players[i] = ticket.client;
+			waited = Math.max(waited, now - ticket.joined);
+			tickets.remove(ticket.client);
+		}
+		server.getLogger().log(players.length + " players matched after " + waited + " ms");
+		
+		gameCallback.doCallback(new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				try {
+					server.createGame(new Game(players));
+				} catch (RemoteException e) {
+					e.printStackTrace();
+				}
+				n.resetCallbackTime();
+			}
+		});
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Matchmaker.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import game.multiplayer.containers.Client;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Lets players ask for a game instead of inviting each other. Players that
+ * want a game of the same size, and of about the same rating if they give
+ * one, are put together by the server and get receiveGame() straight away.
+ * The WordMoleServer stub implements it as well.
+ * @author Chris Barton
+ */
+public interface Matchmaker extends Remote {
+	/**
+	 * Puts a player in the queue for a game of the given size. Joining again
+	 * replaces the earlier request.
+	 * @param client - Client - Player that wants a game.
+	 * @param players - int - Number of players in the game, 2 or more.
+	 */
+	public void joinQueue(Client client, int players) throws RemoteException;
+	
+	/**
+	 * Puts a rated player in the queue for a game of the given size.
+	 * @param client - Client - Player that wants a game.
+	 * @param players - int - Number of players in the game, 2 or more.
+	 * @param rating - int - Rating of the player, MatchQueue.UNRATED for none.
+	 */
+	public void joinQueue(Client client, int players, int rating) throws RemoteException;
+	
+	/**
+	 * Takes a player out of the queue.
+	 * @param client - Client - Player that no longer wants a game.
+	 */
+	public void leaveQueue(Client client) throws RemoteException;
+}
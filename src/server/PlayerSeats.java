@@ -0,0 +1,124 @@
+/*
+ * PlayerSeats.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * The players of a game or an invitation, each at a seat numbered from 0,
+ * so the session can keep what it knows about them in plain arrays indexed
+ * by seat instead of maps and lists keyed by Client. A remote call is
+ * matched to its seat by the player key the server gave the player, its
+ * dense player id and the generation of the id, so the seats are compared
+ * as numbers and an id that went to another player never matches.
+ * 
+ * A player that left the server and came back has a new key. Its seat is
+ * found by name, once, and takes the new key and the new Client.
+ * @author Chris Barton
+ */
+public final class PlayerSeats {
+	private final WordMoleServerImpl server;
+	// Written by whichever thread finds a new key. A read that sees one
+	// without the other only costs one more search by name.
+	private final Client [] players;
+	private final long [] keys;
+	
+	/**
+	 * Constructor
+	 * @param server - WordMoleServerImpl - Server the players are connected to.
+	 * @param players - Client[] - Players, in seat order.
+	 */
+	public PlayerSeats(WordMoleServerImpl server, Client [] players){
+		this.server = server;
+		this.players = new Client[players.length];
+		this.keys = new long[players.length];
+		for ( int i = 0; i < players.length; i++ ){
+			this.players[i] = server.intern(players[i]);
+			this.keys[i] = server.getPlayerKey(players[i]);
+		}
+	}
+	
+	/**
+	 * Returns the number of seats.
+	 * @return int
+	 */
+	public int size(){
+		return players.length;
+	}
+	
+	/**
+	 * Returns the player at a seat.
+	 * @param seat - int - Seat number.
+	 * @return Client - The server's own Client of the player, as of the
+	 * last time the seat was looked up.
+	 */
+	public Client get(int seat){
+		return players[seat];
+	}
+	
+	/**
+	 * Returns the key of the player at a seat.
+	 * @param seat - int - Seat number.
+	 * @return long - Player key, -1 if the player was not connected.
+	 */
+	public long key(int seat){
+		return keys[seat];
+	}
+	
+	/**
+	 * Returns the seat of a player.
+	 * @param client - Client - Any Client with the player's name.
+	 * @return int, -1 if the player has no seat.
+	 */
+	public int seatOf(Client client){
+		long key = server.getPlayerKey(client);
+		
+		if ( key >= 0 )
+			for ( int i = 0; i < keys.length; i++ )
+				if ( keys[i] == key )
+					return i;
+		
+		for ( int i = 0; i < players.length; i++ ){
+			if ( players[i].equals(client) ){
+				Client player = (key >= 0) ? server.getPlayer(key) : null;
+				
+				if ( player != null ){
+					players[i] = player;
+					keys[i] = key;
+				}
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns a rough size of the seats in bytes, the players' Clients not
+	 * counted since the server keeps those anyway.
+	 * @return long
+	 */
+	public long estimatedBytes(){
+		return SessionRegistry.align(SessionRegistry.HEADER_BYTES + 3 * SessionRegistry.REFERENCE_BYTES)
+			+ SessionRegistry.arrayBytes(players.length, SessionRegistry.REFERENCE_BYTES)
+			+ SessionRegistry.arrayBytes(keys.length, 8);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * RosterChange.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.io.Serializable;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * One change to the player list. Changes are idempotent: a JOIN or STATE
+ * change sets the player's entry and a LEAVE removes it, so applying a
+ * change the list already reflects does no harm.
+ * @author Chris Barton
+ */
+public class RosterChange implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public enum Type { JOIN, LEAVE, STATE }
+	
+	private final Type type;
+	private final Client client;
+	private final long version;
+	
+	/**
+	 * Constructor
+	 * @param type - Type - What happened to the player.
+	 * @param client - Client - Player as it is after the change.
+	 * @param version - long - Version of the player list the change leads to.
+	 */
+	public RosterChange(Type type, Client client, long version){
+		this.type = type;
+		this.client = client;
+		this.version = version;
+	}
+	
+	public Type getType(){
+		return type;
+	}
+	
+	public Client getClient(){
+		return client;
+	}
+	
+	public long getVersion(){
+		return version;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * RosterListener.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Optional interface for WordMoleClients that keep a versioned copy of the
+ * player list. Clients that implement it get only the changes since the
+ * last version they took, instead of the whole list on every change. A
+ * call that returns normally acknowledges its version.
+ * @author Chris Barton
+ */
+public interface RosterListener extends Remote {
+	/**
+	 * Replaces the whole player list.
+	 * @param snapshot - RosterSnapshot - The list and its version. Its
+	 * serialized form is shared by everyone it is sent to.
+	 */
+	public void rosterSnapshot(RosterSnapshot snapshot) throws RemoteException;
+	
+	/**
+	 * Applies the changes since the last acknowledged version, oldest first.
+	 * @param fromVersion - long - Version the changes start from.
+	 * @param changes - RosterChange[] - Changes; the last one holds the new
+	 * version. Empty when the server only checks the client is there.
+	 */
+	public void rosterDelta(long fromVersion, RosterChange[] changes) throws RemoteException;
+}
@@ -0,0 +1,38 @@
+/*
+ * RosterObserver.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server;
+
+/**
+ * Watches the player list from inside the server, e.g. the AdminFrame.
+ * Unlike a RosterListener it is not a client and is not sent anything, it
+ * is only told when there is a new version.
+ * @author Chris Barton
+ */
+public interface RosterObserver {
+	/**
+	 * Called after the player list changed, on the thread that changed it.
+	 * Must not block. Snapshots may come in out of order when changes are
+	 * made at the same time, see RosterSnapshot.getVersion().
+	 * @param snapshot - RosterSnapshot - The list after the change.
+	 */
+	public void rosterChanged(RosterSnapshot snapshot);
+}
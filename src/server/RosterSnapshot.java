@@ -0,0 +1,125 @@
+/*
+ * RosterSnapshot.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * One version of the player list. It is immutable: it shares the Clients
+ * of the WordMoleClientList, which never change once they are in the list.
+ * The list only makes a snapshot when one is asked for, and its players
+ * are serialized the first time it is sent. Every later send, to whatever
+ * client and from whatever thread, writes those same bytes, so a
+ * broadcast serializes the list once and not once per recipient.
+ * @author Chris Barton
+ */
+public final class RosterSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final long version;
+	private transient Client [] clients;
+	private transient volatile byte [] bytes;
+	
+	/**
+	 * Constructor
+	 * @param version - long - Version of the player list.
+	 * @param clients - Client[] - All players. The array is kept, neither
+	 * it nor the Clients may be changed afterwards.
+	 */
+	public RosterSnapshot(long version, Client [] clients){
+		this.version = version;
+		this.clients = clients;
+	}
+	
+	public long getVersion(){
+		return version;
+	}
+	
+	/**
+	 * Returns the players.
+	 * @return Client[] - A copy of the array. The Clients are shared and
+	 * must not be changed.
+	 */
+	public Client [] getClients(){
+		return clients.clone();
+	}
+	
+	public int size(){
+		return clients.length;
+	}
+	
+	/**
+	 * Returns the serialized players, serializing them on the first call.
+	 * @return byte[] - Shared, must not be changed.
+	 */
+	byte [] toBytes() throws IOException{
+		byte [] b = bytes;
+		
+		if ( b == null ){
+			synchronized(this){
+				b = bytes;
+				if ( b == null ){
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + clients.length * 32);
+					ObjectOutputStream out = new ObjectOutputStream(buffer);
+					out.writeObject(clients);
+					out.close();
+					bytes = b = buffer.toByteArray();
+				}
+			}
+		}
+		return b;
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		byte [] b = toBytes();
+		
+		out.defaultWriteObject();
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		
+		byte [] b = new byte[in.readInt()];
+		in.readFully(b);
+		ObjectInputStream players = new ObjectInputStream(new ByteArrayInputStream(b));
+		try {
+			clients = (Client[])players.readObject();
+		} finally {
+			players.close();
+		}
+		bytes = b;
+	}
+	
+	public String toString(){
+		return "Roster v" + version + " (" + clients.length + " players)";
+	}
+}
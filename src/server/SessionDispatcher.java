@@ -0,0 +1,58 @@
+/*
+ * SessionDispatcher.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Game;
+import game.multiplayer.containers.Invite;
+import game.multiplayer.interfaces.MultiplayerGameFrame;
+
+/**
+ * The one remote object behind all games and invitations when sessions are
+ * multiplexed. Clients get a GameProxy or InvitationProxy that calls in
+ * here with the session's id. Calls for a session that is gone fail with
+ * a NoSuchObjectException, just like calls to an unexported object.
+ * @author Chris Barton
+ */
+public interface SessionDispatcher extends Remote {
+	public void gameRegister(long id, Client client, MultiplayerGameFrame mult, boolean connected) throws RemoteException;
+	
+	public void gameUpdateScore(long id, Client client, int score) throws RemoteException;
+	
+	public int gameSubmitWord(long id, Client client, String word) throws RemoteException;
+	
+	public void gameWinGame(long id, Client winner) throws RemoteException;
+	
+	public Game gameGetGame(long id) throws RemoteException;
+	
+	public void inviteInitializeGame(long id, boolean initialize) throws RemoteException;
+	
+	public void inviteMakeDecision(long id, Client client, boolean decision) throws RemoteException;
+	
+	public Invite inviteGetInvite(long id) throws RemoteException;
+	
+	public boolean inviteReady(long id) throws RemoteException;
+}
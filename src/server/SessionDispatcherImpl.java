@@ -0,0 +1,112 @@
+/*
+ * SessionDispatcherImpl.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Game;
+import game.multiplayer.containers.Invite;
+import game.multiplayer.game.WordGame;
+import game.multiplayer.interfaces.Invitation;
+import game.multiplayer.interfaces.MultiplayerGameFrame;
+
+import server.rmi.TunedSocketFactory;
+
+/**
+ * Routes the calls of all multiplexed sessions to their in-memory state.
+ * @author Chris Barton
+ */
+public class SessionDispatcherImpl extends UnicastRemoteObject implements SessionDispatcher {
+	private static final long serialVersionUID = 1L;
+	
+	private SessionRegistry registry;
+	
+	/**
+	 * Constructor
+	 * @param registry - SessionRegistry - Where the sessions are looked up.
+	 * @throws RemoteException
+	 */
+	public SessionDispatcherImpl(SessionRegistry registry) throws RemoteException{
+		super(0, TunedSocketFactory.getConfigured(), TunedSocketFactory.getConfigured());
+		this.registry = registry;
+	}
+	
+	private game.multiplayer.interfaces.Game game(long id) throws NoSuchObjectException{
+		Object session = registry.lookup(id);
+		
+		if ( !(session instanceof game.multiplayer.interfaces.Game) )
+			throw new NoSuchObjectException("No game " + id);
+		return (game.multiplayer.interfaces.Game)session;
+	}
+	
+	private Invitation invitation(long id) throws NoSuchObjectException{
+		Object session = registry.lookup(id);
+		
+		if ( !(session instanceof Invitation) )
+			throw new NoSuchObjectException("No invitation " + id);
+		return (Invitation)session;
+	}
+	
+	public void gameRegister(long id, Client client, MultiplayerGameFrame mult, boolean connected) throws RemoteException{
+		game(id).register(client, mult, connected);
+	}
+	
+	public void gameUpdateScore(long id, Client client, int score) throws RemoteException{
+		game(id).updateScore(client, score);
+	}
+	
+	public int gameSubmitWord(long id, Client client, String word) throws RemoteException{
+		game.multiplayer.interfaces.Game game = game(id);
+		
+		if ( !(game instanceof WordGame) )
+			throw new NoSuchObjectException("Game " + id + " takes no words");
+		return ((WordGame)game).submitWord(client, word);
+	}
+	
+	public void gameWinGame(long id, Client winner) throws RemoteException{
+		game(id).winGame(winner);
+	}
+	
+	public Game gameGetGame(long id) throws RemoteException{
+		return game(id).getGame();
+	}
+	
+	public void inviteInitializeGame(long id, boolean initialize) throws RemoteException{
+		invitation(id).initializeGame(initialize);
+	}
+	
+	public void inviteMakeDecision(long id, Client client, boolean decision) throws RemoteException{
+		invitation(id).makeDecision(client, decision);
+	}
+	
+	public Invite inviteGetInvite(long id) throws RemoteException{
+		return invitation(id).getInvite();
+	}
+	
+	public boolean inviteReady(long id) throws RemoteException{
+		return invitation(id).ready();
+	}
+}
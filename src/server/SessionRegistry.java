@@ -0,0 +1,426 @@
+/*
+ * SessionRegistry.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import server.callbacks.AsyncCallback;
+import server.callbacks.TimingWheel;
+import server.rmi.TunedSocketFactory;
+
+/**
+ * Keeps track of the live games and invitations. Every session is
+ * registered when it is created and unexported once it has finished, so
+ * finished sessions do not wait in the RMI export tables for distributed
+ * GC. Sessions that have been idle for too long are expired.
+ * 
+ * Sessions are either exported one by one, or multiplexed: then there is a
+ * single exported SessionDispatcher and the clients get small proxies that
+ * name the session by id, so starting and ending a session costs no RMI
+ * export at all. The ids are random longs, so a client cannot reach a
+ * session it was not handed by guessing from the id of its own.
+ * @author Chris Barton
+ */
+public class SessionRegistry {
+	private ConcurrentHashMap<Remote, Session> sessions;
+	private ConcurrentHashMap<Long, Session> byId;
+	private ConcurrentHashMap<Remote, Session> byRef;
+	private final SecureRandom random = new SecureRandom();
+	private SessionDispatcherImpl dispatcher;
+	private TimingWheel timer;
+	private volatile boolean stopped = false;
+	
+	/** Time between checks for idle sessions. */
+	public static final long SWEEP_INTERVAL = 30000;
+	/** Time an invitation may go without a call before it is cancelled. */
+	public static final long INVITATION_TIMEOUT = 5 * 60000;
+	/** Time a game may go without a call before it is ended. */
+	public static final long GAME_TIMEOUT = 30 * 60000;
+	/** Time a finished session stays exported for calls still on their way. */
+	public static final long LINGER = AsyncCallback.THIRTY_SECONDS;
+	
+	// Object layout of a 64 bit JVM with compressed references, which is
+	// what the sizes below are counted in.
+	/** Header of a plain object, in bytes. */
+	public static final int HEADER_BYTES = 12;
+	/** Header of an array, length included, in bytes. */
+	public static final int ARRAY_HEADER_BYTES = 16;
+	/** Size of a reference field or array slot, in bytes. */
+	public static final int REFERENCE_BYTES = 4;
+	/** Size of an entry in a ConcurrentHashMap, in bytes. */
+	public static final int MAP_ENTRY_BYTES = 32;
+	
+	/**
+	 * What the registry keeps per session: the Session, its boxed id and an
+	 * entry in each of the three maps.
+	 */
+	private static final int SESSION_BYTES = 64 + 16 + 3 * MAP_ENTRY_BYTES;
+	/**
+	 * What exporting a session on its own costs: the RMI object table's
+	 * Target, ObjID, WeakRef and ObjectEndpoint, the table entries, the
+	 * UnicastServerRef, and the stub with its handler, UnicastRef and
+	 * LiveRef.
+	 */
+	private static final int EXPORT_BYTES = 48 + 40 + 32 + 24 + 2 * 48 + 40 + 16 + 16 + 16 + 32;
+	/** What a multiplexed session costs instead: its small proxy. */
+	private static final int PROXY_BYTES = 24;
+	
+	public enum Kind { GAME, INVITATION }
+	
+	public enum State { WAITING, PLAYING, FINISHED }
+	
+	/**
+	 * A session that can be ended from the outside when it has been idle too
+	 * long. expire() should wind the session down and finish() it.
+	 */
+	public interface Expirable {
+		public void expire();
+	}
+	
+	/**
+	 * A session that can tell roughly how much memory it holds, beyond what
+	 * the registry keeps for it.
+	 */
+	public interface Measurable {
+		public long estimatedBytes();
+	}
+	
+	/**
+	 * What the registry knows about one session.
+	 */
+	public static class Session {
+		private final long id;
+		private final Remote object;
+		private Remote ref;
+		private final Kind kind;
+		private final int players;
+		private final long created = System.currentTimeMillis();
+		private int exportBytes;
+		private volatile long lastActive = created;
+		private volatile State state = State.WAITING;
+		
+		Session(long id, Remote object, Kind kind, int players){
+			this.id = id;
+			this.object = object;
+			this.kind = kind;
+			this.players = players;
+		}
+		
+		public long getId(){
+			return id;
+		}
+		
+		public Remote getObject(){
+			return object;
+		}
+		
+		public Kind getKind(){
+			return kind;
+		}
+		
+		public int getPlayers(){
+			return players;
+		}
+		
+		public long getCreated(){
+			return created;
+		}
+		
+		public long getLastActive(){
+			return lastActive;
+		}
+		
+		public State getState(){
+			return state;
+		}
+		
+		/**
+		 * Returns a rough estimate of the memory the session takes: what the
+		 * registry keeps for it, the cost of making it reachable, and what
+		 * the game or invitation itself holds if it can tell.
+		 * @return long - bytes
+		 */
+		public long estimatedBytes(){
+			long bytes = SESSION_BYTES + exportBytes;
+			
+			if ( object instanceof Measurable )
+				bytes += ((Measurable)object).estimatedBytes();
+			return bytes;
+		}
+		
+		public String toString(){
+			return kind + " " + state + " (" + players + " players)";
+		}
+	}
+	
+	private final Runnable sweeper = new Runnable() {
+		public void run() {
+			if ( !stopped ){
+				sweep();
+				timer.schedule(this, SWEEP_INTERVAL);
+			}
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param timer - TimingWheel - Runs the sweeps and the delayed unexports.
+	 * @param multiplexed - boolean - true to route all sessions through one
+	 * SessionDispatcher instead of exporting each of them.
+	 * @throws RemoteException if the dispatcher cannot be exported.
+	 */
+	public SessionRegistry(TimingWheel timer, boolean multiplexed) throws RemoteException{
+		this.timer = timer;
+		sessions = new ConcurrentHashMap<Remote, Session>();
+		byId = new ConcurrentHashMap<Long, Session>();
+		byRef = new ConcurrentHashMap<Remote, Session>();
+		if ( multiplexed )
+			dispatcher = new SessionDispatcherImpl(this);
+	}
+	
+	public boolean isMultiplexed(){
+		return dispatcher != null;
+	}
+	
+	public void start(){
+		stopped = false;
+		timer.schedule(sweeper, SWEEP_INTERVAL);
+	}
+	
+	public void stop(){
+		stopped = true;
+	}
+	
+	/**
+	 * Registers a new session and makes it reachable for the clients.
+	 * @param object - Remote - The game or invitation.
+	 * @param kind - Kind
+	 * @param players - int - Number of players in it.
+	 * @return Remote - What to hand to the clients: the session's stub, or
+	 * its proxy if sessions are multiplexed.
+	 * @throws RemoteException if the session cannot be exported.
+	 */
+	public Remote add(Remote object, Kind kind, int players) throws RemoteException{
+		Session s = new Session(newId(), object, kind, players);
+		Remote ref;
+		
+		if ( dispatcher == null )
+			ref = TunedSocketFactory.export(object);
+		else if ( kind == Kind.GAME )
+			ref = new GameProxy(s.id, dispatcher);
+		else
+			ref = new InvitationProxy(s.id, dispatcher);
+		
+		s.ref = ref;
+		s.exportBytes = (dispatcher == null) ? EXPORT_BYTES : PROXY_BYTES;
+		byId.put(s.id, s);
+		byRef.put(ref, s);
+		sessions.put(object, s);
+		return ref;
+	}
+	
+	/**
+	 * Picks a random id no live or lingering session has.
+	 */
+	private long newId(){
+		long id;
+		
+		do {
+			id = random.nextLong() & Long.MAX_VALUE;
+		} while ( id == 0 || byId.containsKey(id) );
+		return id;
+	}
+	
+	/**
+	 * Returns the game or invitation with an id, until a while after it
+	 * finished.
+	 * @param id - long
+	 * @return Remote, or null if there is none.
+	 */
+	public Remote lookup(long id){
+		Session s = byId.get(id);
+		
+		return (s != null) ? s.object : null;
+	}
+	
+	/**
+	 * Returns the id of the session a client was handed, until a while
+	 * after it finished.
+	 * @param ref - Remote - The session's stub or proxy.
+	 * @return long, or -1 if there is none.
+	 */
+	public long idOf(Remote ref){
+		Session s = byRef.get(ref);
+		
+		return (s != null) ? s.id : -1;
+	}
+	
+	/**
+	 * Records that a session is in use, which keeps it from expiring.
+	 * @param object - Remote - The game or invitation.
+	 */
+	public void touch(Remote object){
+		Session s = sessions.get(object);
+		
+		if ( s != null )
+			s.lastActive = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Moves a session to another state.
+	 * @param object - Remote - The game or invitation.
+	 * @param state - State
+	 */
+	public void setState(Remote object, State state){
+		Session s = sessions.get(object);
+		
+		if ( s != null ){
+			s.state = state;
+			s.lastActive = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Ends a session. It is taken out of the registry at once and made
+	 * unreachable a little later, so calls that are already on their way
+	 * still land.
+	 * @param object - Remote - The game or invitation.
+	 */
+	public void finish(final Remote object){
+		final Session s = sessions.remove(object);
+		
+		if ( s == null )
+			return;
+		
+		s.state = State.FINISHED;
+		timer.schedule(new Runnable() {
+			public void run() {
+				byId.remove(s.id, s);
+				byRef.remove(s.ref, s);
+				if ( dispatcher != null )
+					return;
+				
+				try {
+					UnicastRemoteObject.unexportObject(object, true);
+				} catch (NoSuchObjectException e) {
+					// Already gone.
+				}
+			}
+		}, LINGER);
+	}
+	
+	/**
+	 * Expires the sessions that have been idle too long. Runs on the timer
+	 * thread; expire() is expected to only queue work.
+	 */
+	private void sweep(){
+		long now = System.currentTimeMillis();
+		
+		for ( Session s : sessions.values() ){
+			long timeout = (s.kind == Kind.GAME) ? GAME_TIMEOUT : INVITATION_TIMEOUT;
+			
+			if ( now - s.lastActive > timeout ){
+				// Give it a full timeout to wind down before trying again.
+				s.lastActive = now;
+				if ( s.object instanceof Expirable )
+					((Expirable)s.object).expire();
+				else
+					finish(s.object);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a snapshot of the live sessions.
+	 * @return List<Session>
+	 */
+	public List<Session> sessions(){
+		return new ArrayList<Session>(sessions.values());
+	}
+	
+	/**
+	 * Returns the number of live sessions of a kind.
+	 * @param kind - Kind
+	 * @return int
+	 */
+	public int count(Kind kind){
+		int n = 0;
+		
+		for ( Session s : sessions.values() )
+			if ( s.kind == kind )
+				n++;
+		return n;
+	}
+	
+	/**
+	 * Returns the number of players in the live sessions, counting a player
+	 * once for every session it is in.
+	 * @return int
+	 */
+	public int playerCount(){
+		int n = 0;
+		
+		for ( Session s : sessions.values() )
+			n += s.players;
+		return n;
+	}
+	
+	/**
+	 * Returns a rough estimate of the memory the live sessions take.
+	 * @return long - bytes
+	 */
+	public long estimatedBytes(){
+		long bytes = 0;
+		
+		for ( Session s : sessions.values() )
+			bytes += s.estimatedBytes();
+		return bytes;
+	}
+	
+	/**
+	 * Returns the size of an object or array, rounded up to the 8 bytes
+	 * the JVM aligns objects to.
+	 * @param bytes - long - Header and fields.
+	 * @return long
+	 */
+	public static long align(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+	
+	/**
+	 * Returns the size of an array.
+	 * @param length - int - Number of elements.
+	 * @param elementBytes - int - Size of an element.
+	 * @return long
+	 */
+	public static long arrayBytes(int length, int elementBytes){
+		return align(ARRAY_HEADER_BYTES + (long)length * elementBytes);
+	}
+}
@@ -21,20 +21,93 @@
 
 package server;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 import game.multiplayer.containers.Client;
 import game.multiplayer.interfaces.WordMoleClient;
 
+/**
+ * The connected WordMoleClients and their Clients. The list is versioned:
+ * every join, leave and state change bumps the version and is kept in a
+ * short history, so a client that is not far behind can be sent just the
+ * changes since the version it last acknowledged.
+ * 
+ * Lookups go through hash indexes by Client and by WordMoleClient and do
+ * not lock. Changes are serialized on the list and publish a fresh copy of
+ * the members, which iterator() and clients() hand out, so iterating never
+ * sees a half made change and never holds the list up.
+ * 
+ * Every member gets a small player id when it joins, and ids of players
+ * that left are handed out again, so the ids stay dense and can index
+ * plain arrays. An id that is handed out again gets a new generation, and
+ * a key, the id together with its generation, never names a later player
+ * that got the same id. The list also keeps one Client per member, the
+ * player: the Client a remote call brings along is only used to find the
+ * member, and everything the server keeps holds the member's player. A
+ * state change is made to the player in place.
+ * 
+ * What the list publishes is a copy of the player as of each change, which
+ * is never changed. The copies can therefore be shared by everything that
+ * reads the list: the history of changes and the RosterSnapshot of a
+ * version, which is only made when the whole list is asked for and is then
+ * shared by all clients that need it.
+ * @author Chris Barton
+ */
 public class WordMoleClientList {
-	private ArrayList<Client> clients;
-	private ArrayList<WordMoleClient> wmClients;
+	private ConcurrentHashMap<Client, Entry> byClient;
+	private ConcurrentHashMap<WordMoleClient, Entry> byStub;
+	private volatile Entry[] members = new Entry[0];
+	private volatile WordMoleClient[] wmClients = new WordMoleClient[0];
+	private volatile AtomicReferenceArray<Entry> byId = new AtomicReferenceArray<Entry>(16);
+	private int[] generations = new int[16];
+	private int[] freeIds = new int[16];
+	private int freeCount = 0;
+	private int nextId = 0;
+	private RosterSnapshot snapshot;
+	private RosterChange[] history = new RosterChange[HISTORY];
+	private volatile long version;
+	
+	/** Number of changes kept for clients that are behind. */
+	public static final int HISTORY = 128;
+	
+	// Every field of a Client, for copy()
+	private static final Field[] CLIENT_FIELDS = clientFields();
+	
+	/**
+	 * One member of the list.
+	 */
+	private static class Entry {
+		final int id;
+		final int generation;
+		final WordMoleClient stub;
+		final Client player;
+		volatile Client client;
+		volatile long acked = -1;
+		final ChatBatch chat = new ChatBatch();
+		
+		Entry(int id, int generation, WordMoleClient stub, Client player){
+			this.id = id;
+			this.generation = generation;
+			this.stub = stub;
+			this.player = player;
+			this.client = copy(player);
+		}
+		
+		long key(){
+			return ((long)generation << 32) | id;
+		}
+	}
 	
 	public WordMoleClientList(){
-		clients = new ArrayList<Client>();
-		wmClients = new ArrayList<WordMoleClient>();
+		byClient = new ConcurrentHashMap<Client, Entry>();
+		byStub = new ConcurrentHashMap<WordMoleClient, Entry>();
 	}
 	
 	/**
@@ -43,78 +116,366 @@ public class WordMoleClientList {
 	 * @param name - Name of the first WordMoleClient
 	 */
 	public WordMoleClientList(WordMoleClient client, Client name){
-		clients = new ArrayList<Client>();
-		wmClients = new ArrayList<WordMoleClient>();
+		this();
 		add(client, name);
 	}
 	
 	/**
-	 * Adds a WordMoleClient with username to the list.
+	 * Adds a WordMoleClient with username to the list. A Client that is
+	 * already in the list is moved over to the new WordMoleClient and keeps
+	 * its player id and its player.
 	 * @param client - WordMoleClient to add.
 	 * @param name - Client of the WordMoleClient
 	 */
 	public synchronized void add(WordMoleClient client, Client name){
-		clients.add(name);
-		wmClients.add(client);
+		Entry old = byClient.get(name);
+		Entry e;
+		
+		if ( old != null ){
+			byStub.remove(old.stub, old);
+			old.player.state = name.state;
+			e = new Entry(old.id, old.generation, client, old.player);
+		} else {
+			int id = allocateId();
+			e = new Entry(id, generations[id], client, copy(name));
+		}
+		
+		byClient.put(e.player, e);
+		byStub.put(client, e);
+		byId.set(e.id, e);
+		
+		int i = old != null ? indexOf(old) : -1;
+		if ( i >= 0 )
+			replaceAt(i, e);
+		else append(e);
+		record(RosterChange.Type.JOIN, e.client);
 	}
 	
 	/**
-	 * Updates the client in the List
+	 * Updates the client in the List. Only the state is taken over, the
+	 * member keeps its own player.
 	 * @param client - Client to be updated
 	 */
 	public synchronized boolean update(Client client){
-		int idx = clients.indexOf(client);
-		if ( idx >= 0 ){
-			clients.set(idx, client);
+		Entry e = byClient.get(client);
+		
+		if ( e != null ){
+			e.player.state = client.state;
+			e.client = copy(e.player);
+			record(RosterChange.Type.STATE, e.client);
 			return true;
 		} else return false;
 	}
 	
 	/**
-	 * Removes a WordMoleClient from the system.
+	 * Removes a WordMoleClient from the system. Its player id is free to be
+	 * handed out again, with the next generation.
 	 * @param client - Client of the WordMoleClient
 	 */
 	public synchronized void remove(Client client){
-		int idx = clients.indexOf(client);
+		Entry e = byClient.remove(client);
 		
-		if ( idx >= 0 ){
-			clients.remove(idx);
-			wmClients.remove(idx);
+		if ( e != null ){
+			byStub.remove(e.stub, e);
+			byId.set(e.id, null);
+			freeId(e.id);
+			
+			int i = indexOf(e);
+			if ( i >= 0 )
+				removeAt(i);
+			record(RosterChange.Type.LEAVE, e.client);
 		}
 	}
 	
+	/**
+	 * The copies handed out by iterator() and clients() are replaced, never
+	 * changed, and members keep the order they joined in. Only the entry
+	 * that changed is touched; a state change keeps its Entry and needs no
+	 * new copy at all.
+	 */
+	private void append(Entry e){
+		int n = members.length;
+		Entry[] now = Arrays.copyOf(members, n + 1);
+		WordMoleClient[] stubs = Arrays.copyOf(wmClients, n + 1);
+		now[n] = e;
+		stubs[n] = e.stub;
+		members = now;
+		wmClients = stubs;
+	}
+	
+	private void replaceAt(int i, Entry e){
+		Entry[] now = members.clone();
+		WordMoleClient[] stubs = wmClients.clone();
+		now[i] = e;
+		stubs[i] = e.stub;
+		members = now;
+		wmClients = stubs;
+	}
+	
+	private void removeAt(int i){
+		int n = members.length - 1;
+		Entry[] now = new Entry[n];
+		WordMoleClient[] stubs = new WordMoleClient[n];
+		System.arraycopy(members, 0, now, 0, i);
+		System.arraycopy(members, i + 1, now, i, n - i);
+		System.arraycopy(wmClients, 0, stubs, 0, i);
+		System.arraycopy(wmClients, i + 1, stubs, i, n - i);
+		members = now;
+		wmClients = stubs;
+	}
+	
+	private int indexOf(Entry e){
+		Entry[] m = members;
+		for ( int i = m.length - 1; i >= 0; i-- )
+			if ( m[i] == e )
+				return i;
+		return -1;
+	}
+	
+	/**
+	 * Hands out the lowest free player id in its next generation, growing
+	 * the id table if all are taken.
+	 */
+	private int allocateId(){
+		int id;
+		
+		if ( freeCount > 0 ){
+			// The lowest id sits at the end, see freeId().
+			id = freeIds[--freeCount];
+		} else {
+			id = nextId++;
+			if ( id == byId.length() ){
+				AtomicReferenceArray<Entry> bigger = new AtomicReferenceArray<Entry>(id * 2);
+				for ( int i = 0; i < id; i++ )
+					bigger.set(i, byId.get(i));
+				byId = bigger;
+				generations = Arrays.copyOf(generations, id * 2);
+			}
+		}
+		// Kept positive, so a key is never negative.
+		generations[id] = (generations[id] + 1) & Integer.MAX_VALUE;
+		return id;
+	}
+	
+	/**
+	 * Returns an id to the free list, which is kept sorted from the highest
+	 * id down so the lowest one is reused first.
+	 */
+	private void freeId(int id){
+		if ( freeCount == freeIds.length )
+			freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		
+		int i = freeCount++;
+		for ( ; i > 0 && freeIds[i-1] < id; i-- )
+			freeIds[i] = freeIds[i-1];
+		freeIds[i] = id;
+	}
+	
+	private void record(RosterChange.Type type, Client client){
+		long v = version + 1;
+		history[(int)(v % HISTORY)] = new RosterChange(type, client, v);
+		version = v;
+	}
+	
+	/**
+	 * Copies a Client with all its fields, whatever they are. The copies are
+	 * what the list publishes and are never handed out to be changed.
+	 * @param client - Client
+	 * @return Client
+	 */
+	private static Client copy(Client client){
+		Client c = new Client(client.name);
+		
+		try {
+			for ( Field f : CLIENT_FIELDS )
+				f.set(c, f.get(client));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot copy " + client, e);
+		}
+		return c;
+	}
+	
+	private static Field[] clientFields(){
+		ArrayList<Field> fields = new ArrayList<Field>();
+		
+		for ( Class<?> c = Client.class; c != Object.class; c = c.getSuperclass() ){
+			for ( Field f : c.getDeclaredFields() ){
+				if ( !Modifier.isStatic(f.getModifiers()) ){
+					f.setAccessible(true);
+					fields.add(f);
+				}
+			}
+		}
+		return fields.toArray(new Field[fields.size()]);
+	}
+	
+	/**
+	 * Returns the current version of the list.
+	 * @return long
+	 */
+	public long version(){
+		return version;
+	}
+	
+	/**
+	 * Returns the current version of the whole list. It is made on the
+	 * first call after a change and shared by the later ones.
+	 * @return RosterSnapshot
+	 */
+	public synchronized RosterSnapshot snapshot(){
+		if ( snapshot == null || snapshot.getVersion() != version )
+			snapshot = new RosterSnapshot(version, clients());
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the changes made after a version, oldest first.
+	 * @param from - long - Version the caller has.
+	 * @return RosterChange[], or null if the version is unknown or too old
+	 * and the caller needs the whole list.
+	 */
+	public synchronized RosterChange[] changesSince(long from){
+		if ( from < 0 || from > version || version - from > HISTORY )
+			return null;
+		
+		RosterChange[] changes = new RosterChange[(int)(version - from)];
+		for ( int i = 0; i < changes.length; i++ )
+			changes[i] = history[(int)((from + 1 + i) % HISTORY)];
+		return changes;
+	}
+	
+	/**
+	 * Returns the last version a WordMoleClient acknowledged.
+	 * @param client - WordMoleClient
+	 * @return long, -1 if it has not acknowledged any.
+	 */
+	public long acknowledged(WordMoleClient client){
+		Entry e = byStub.get(client);
+		
+		return (e != null) ? e.acked : -1;
+	}
+	
+	/**
+	 * Records that a WordMoleClient has taken a version of the list. Only
+	 * the lane of the WordMoleClient acknowledges, so there is one writer.
+	 * @param client - WordMoleClient
+	 * @param v - long - Version it took.
+	 */
+	public void acknowledge(WordMoleClient client, long v){
+		Entry e = byStub.get(client);
+		
+		if ( e != null && v > e.acked )
+			e.acked = v;
+	}
+	
+	/**
+	 * Returns the chat lines waiting for a WordMoleClient.
+	 * @param client - WordMoleClient
+	 * @return ChatBatch, null if the WordMoleClient is not in the list.
+	 */
+	public ChatBatch chat(WordMoleClient client){
+		Entry e = byStub.get(client);
+		
+		return (e != null) ? e.chat : null;
+	}
+	
+	/**
+	 * Returns the key of a player: its player id in the low 32 bits and the
+	 * generation of the id in the high ones.
+	 * @param client - Client - Any Client with the player's name.
+	 * @return long, -1 if the player is not in the list.
+	 */
+	public long key(Client client){
+		Entry e = byClient.get(client);
+		
+		return (e != null) ? e.key() : -1;
+	}
+	
+	/**
+	 * Returns the list's own Client for a player.
+	 * @param client - Client - Any Client with the player's name.
+	 * @return Client, or client itself if the player is not in the list.
+	 */
+	public Client intern(Client client){
+		Entry e = byClient.get(client);
+		
+		return (e != null) ? e.player : client;
+	}
+	
+	/**
+	 * Returns the list's own Client of the player with a key.
+	 * @param key - long - From key().
+	 * @return Client, null if the player has left since.
+	 */
+	public Client player(long key){
+		Entry e = entry(key);
+		
+		return (e != null) ? e.player : null;
+	}
+	
+	/**
+	 * Returns the WordMoleClient of the player with a key.
+	 * @param key - long - From key().
+	 * @return WordMoleClient, null if the player has left since.
+	 */
+	public WordMoleClient stub(long key){
+		Entry e = entry(key);
+		
+		return (e != null) ? e.stub : null;
+	}
+	
+	private Entry entry(long key){
+		AtomicReferenceArray<Entry> table = byId;
+		int id = (int)key;
+		
+		if ( key < 0 || id >= table.length() )
+			return null;
+		
+		Entry e = table.get(id);
+		return ( e != null && e.generation == (int)(key >>> 32) ) ? e : null;
+	}
+	
 	/**
 	 * Returns the WordMoleClient with client.
 	 * @param client - Client of the desired WordMoleClient
 	 * @return WordMoleClient
 	 */
-	public synchronized WordMoleClient get(Client client){
-		int idx = clients.indexOf(client);
+	public WordMoleClient get(Client client){
+		Entry e = byClient.get(client);
 		
-		return (idx >= 0) ? wmClients.get(idx) : null;
+		return (e != null) ? e.stub : null;
 	}
 	
 	/**
 	 * Returns the Client with WordMoleClient.
 	 * @param client - WordMoleClient of the desired Client
-	 * @return Client
+	 * @return Client - The list's own, must not be changed.
 	 */
-	public synchronized Client get(WordMoleClient client){
-		int idx = wmClients.indexOf(client);
+	public Client get(WordMoleClient client){
+		Entry e = byStub.get(client);
 		
-		return (idx >= 0) ? clients.get(idx) : null;
+		return (e != null) ? e.client : null;
 	}
 	
 	/**
-	 * Returns an iterator over the elements in this collection.
-	 * There are no guarantees concerning the order in which the elements are returned .
+	 * Returns an iterator over a snapshot of the WordMoleClients, in the
+	 * order they joined. Changes made while iterating do not show up in it.
 	 * @return Iterator<WordMoleClient>
 	 */
-	public synchronized Iterator<WordMoleClient> iterator(){
-		return wmClients.iterator();
+	public Iterator<WordMoleClient> iterator(){
+		return Arrays.asList(wmClients).iterator();
 	}
 	
+	/**
+	 * Returns a snapshot of the Clients, in the order they joined.
+	 * @return Client[] - The list's own Clients, which must not be changed.
+	 */
 	public Client[] clients(){
-		return clients.toArray(new Client[0]);
+		Entry[] now = members;
+		Client[] clients = new Client[now.length];
+		
+		for ( int i = 0; i < now.length; i++ )
+			clients[i] = now[i].client;
+		return clients;
 	}
 }
@@ -30,218 +30,519 @@ import game.multiplayer.interfaces.WordMoleServer;
 import game.multiplayer.invitation.InvitationImpl;
 import game.states.PlayerState;
 
-import java.awt.AlphaComposite;
-import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
 import java.io.IOException;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Collection;
 import java.util.Iterator;
 
-import javax.imageio.ImageIO;
-import javax.swing.*;
-
 import logger.Logger;
 
 import server.callbacks.AsyncCallback;
 import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
 import server.callbacks.Notifier;
+import server.callbacks.OverflowPolicy;
+import server.dictionary.Lexicon;
+import server.nio.NioEndpoint;
+import server.rmi.TunedSocketFactory;
 
 /**
  * This class represents the WordMoleServer Implementation of the Remote Interface for the 
  * WordMoleServer.
+ * 
+ * The server has no window of its own and runs without a display. Where
+ * there is one, main() opens an AdminFrame once the server is up, which
+ * watches the player list as a RosterObserver and shows the log.
  * @author Chris Barton
  */
-@SuppressWarnings("serial")
-public class WordMoleServerImpl extends JFrame implements WordMoleServer{
+public class WordMoleServerImpl implements WordMoleServer, Matchmaker{
 	private WordMoleClientList clientList;
-	private DefaultListModel playerListModel;
-	private AsyncCallback clientCallback = new AsyncCallback(Thread.NORM_PRIORITY-1, 3);
+	private Liveness liveness;
+	private SessionRegistry sessions;
+	private MatchQueue matchQueue;
+	private Lexicon lexicon;
+	private NioEndpoint nioEndpoint;
+	private ChatHistory chatHistory = new ChatHistory(CHAT_HISTORY);
+	private volatile RosterObserver rosterObserver;
+	private AsyncCallback clientCallback = new AsyncCallback(Thread.NORM_PRIORITY-1, 3, 1024);
+	// Games block on their players in turn, so each event gets a (virtual)
+	// thread of its own instead of tying up the lobby's notifiers.
+	private AsyncCallback gameCallback = new AsyncCallback(Thread.NORM_PRIORITY, AsyncCallback.PER_REQUEST);
 	private Logger logger = new Logger(this);
+	private long rosterDelay = ROSTER_DELAY;
 	
-	public WordMoleServerImpl(){
-		super("Word Mole Server");
-		setLayout(new BoxLayout(getContentPane(), BoxLayout.Y_AXIS));
-						
-		JPanel northPnl = new JPanel();
-		northPnl.setLayout(new BoxLayout(northPnl, BoxLayout.X_AXIS));
-		JLabel header = new JLabel("Word Mole Server Platform");
-		northPnl.add(header);
-		
-		playerListModel = new DefaultListModel();
-		JList playerList = new JList(playerListModel){
-			public void paintComponent(Graphics g){
-				BufferedImage img = null;
-				Graphics2D g2d = (Graphics2D) g;
-				
-				super.paintComponent(g);
-				
-				// Give it an outline
-				g.setColor(Color.BLACK);
-				g.drawRect(0, 0, getWidth()-1, getHeight()-1);
-				
-				// Give it the back image.
-				try {
-					img = ImageIO.read(getClass().getResource(("images/icon.png")));
-					
-					BufferedImage bfimg = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TRANSLUCENT);
-					Graphics2D bfimgG = bfimg.createGraphics();
-					bfimgG.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f)); // Overlay the transparency
-					bfimgG.drawImage(img, null, 0, 0); // Draw it on the buffered image
-					g2d.drawImage(bfimg, null, getWidth()/2-img.getWidth(null)+19, getHeight()/2-img.getHeight(null)); // Draw it on the component (centered)
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		};
-		playerList.setMaximumSize(new Dimension(300, 400 ));
+	/**
+	 * Runs the server without the AdminFrame even if there is a display.
+	 * Without a display it never opens.
+	 */
+	public static final boolean HEADLESS = Boolean.getBoolean("wordmole.headless")
+			|| GraphicsEnvironment.isHeadless();
 	
-		add(northPnl);
-		add(playerList);
-		
+	/** Time a player list broadcast waits for more changes to fold in. */
+	public static final long ROSTER_DELAY = 50;
+	
+	/**
+	 * Routes all games and invitations through one exported dispatcher
+	 * instead of exporting each of them. The clients then need the
+	 * GameProxy and InvitationProxy classes, e.g. from the codebase.
+	 */
+	public static final boolean MULTIPLEX_SESSIONS = Boolean.getBoolean("wordmole.multiplexSessions");
+	
+	/**
+	 * Dictionary the games check and score words with, a word list or a
+	 * compiled one. Without it the players keep their own score.
+	 */
+	public static final String DICTIONARY = System.getProperty("wordmole.dictionary");
+	
+	/** Time chat lines for a client are collected before they go out. */
+	public static final long CHAT_WINDOW = 100;
+	
+	/** Most chat lines kept for a client that is behind. */
+	public static final int CHAT_BACKLOG = 256;
+	
+	/** Number of chat lines replayed to clients that join. */
+	public static final int CHAT_HISTORY = 50;
+	
+	/**
+	 * Port of the binary protocol endpoint next to RMI, see NioEndpoint.
+	 * 0 leaves it off.
+	 */
+	public static final int NIO_PORT = Integer.getInteger("wordmole.nioPort", 0);
+	
+	/** Time between two logs of the compressed socket byte counts. */
+	public static final long SOCKET_STATS_INTERVAL = AsyncCallback.SIXTY_SECONDS;
+	
+	/** Time between score pushes in a game. */
+	public static final long GAME_TICK = 100;
+	
+	/** Time a client gets to take an update before it is interrupted. */
+	public static final long CLIENT_TIMEOUT = AsyncCallback.TEN_SECONDS;
+	
+	private final Callback rosterBroadcast = new Callback() {
+		public void executeCallback(Notifier n, Object arg) {
+			sendClient(clientList.clients());
+			n.resetCallbackTime();
+		}
+	};
+	
+	private final Runnable socketStats = new Runnable() {
+		public void run() {
+			logger.log("RMI " + TunedSocketFactory.getStats());
+			clientCallback.getTimer().schedule(this, SOCKET_STATS_INTERVAL);
+		}
+	};
+	
+	public WordMoleServerImpl(){
 		clientList = new WordMoleClientList();
-		
-		addWindowListener(new WindowAdapter(){
-			public void windowClosed(WindowEvent e){
-				clientCallback.stop();
+		liveness = new Liveness(this, clientList, clientCallback);
+		try {
+			sessions = new SessionRegistry(clientCallback.getTimer(), MULTIPLEX_SESSIONS);
+		} catch (RemoteException e) {
+			throw new IllegalStateException("Cannot export the session dispatcher", e);
+		}
+		if ( DICTIONARY != null ){
+			try {
+				lexicon = Lexicon.open(new File(DICTIONARY));
+				logger.log("Loaded " + lexicon.size() + " words from " + DICTIONARY);
+			} catch (IOException e) {
+				logger.log(e);
 			}
-		});
+		}
+		matchQueue = new MatchQueue(this, clientCallback, gameCallback, MatchQueue.MATCH_CYCLE);
+		
+		// A newer player list replaces an older one. Chat is batched per
+		// client, see ChatBatch, so a client has few chat sends queued.
+		clientCallback.setOverflowPolicy(CallbackPriority.ROSTER, 16, OverflowPolicy.DROP_OLDEST);
+		clientCallback.setOverflowPolicy(CallbackPriority.CHAT, 16, OverflowPolicy.DROP_OLDEST);
 		clientCallback.start();
-		logger.setVisible(true);
+		gameCallback.start();
+		liveness.start();
+		sessions.start();
+		if ( NIO_PORT > 0 ){
+			try {
+				nioEndpoint = new NioEndpoint(this, gameCallback, NIO_PORT);
+				nioEndpoint.start();
+				logger.log("Binary protocol on port " + nioEndpoint.getPort());
+			} catch (IOException e) {
+				logger.log(e);
+			}
+		}
+		TunedSocketFactory sockets = TunedSocketFactory.getConfigured();
+		if ( sockets != null ){
+			logger.log("RMI over " + sockets);
+			if ( sockets.isCompressing() )
+				clientCallback.getTimer().schedule(socketStats, SOCKET_STATS_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Stops the server's threads and the binary protocol endpoint.
+	 */
+	public void shutdown(){
+		liveness.stop();
+		sessions.stop();
+		clientCallback.stop();
+		gameCallback.stop();
+		if ( nioEndpoint != null )
+			nioEndpoint.timeToStop();
+		logger.stop();
 	}
 	
-	public synchronized void register(WordMoleClient client, final Client name, final boolean connected) throws RemoteException {
+	public void register(WordMoleClient client, final Client name, final boolean connected) throws RemoteException {
 		logger.log(name.name + " " + connected + " connected in REGISTER");
 		if ( connected ){
-			clientList.add(client, name);
-			playerListModel.addElement(name);
+			// Joining and replaying under the history, like sendMessage(),
+			// so a line said meanwhile reaches the client either on its own
+			// or in the replay, never both.
+			synchronized(chatHistory){
+				clientList.add(client, name);
+				replayChat(client);
+			}
+			refreshPlayerList();
+			liveness.seen(client);
 		} else{
 			clientList.remove(name);
-			playerListModel.removeElement(name);
+			refreshPlayerList();
 		}
 		
-		//register for async callback
-	      clientCallback.doCallback(new Callback() {
-	         public void executeCallback(Notifier n, Object arg) {
-	            sendClient(clientList.clients());
-	            n.resetCallbackTime();
-	         }
-	      });
+		broadcastClients();
 	}
 	
-	public synchronized void reregister(final Client client) throws RemoteException{
+	public void reregister(final Client client) throws RemoteException{
 		logger.log(client.name + " reregistered in REREGISTER");
+		liveness.seen(client);
+		replayChat(clientList.get(client));
 		client.state = PlayerState.CONNECTED;
-		clientCallback.doCallback(new Callback() {
+		clientCallback.doCallback(CallbackPriority.ROSTER, new Callback() {
 	         public void executeCallback(Notifier n, Object arg) {
 	        	updateClient(client);
 	            n.resetCallbackTime();
 	         }
-	      });
+	      }, null);
 	}
 	
-	public synchronized void register(Client name, boolean connected){
+	public void register(Client name, boolean connected){
 		logger.log(name.name + " connected in REGISTER");
 		WordMoleClient client = clientList.get(name);
 		if ( connected ){
 			clientList.add(client, name);
-			playerListModel.addElement(name);
+			refreshPlayerList();
 		} else{
 			clientList.remove(name);
-			playerListModel.removeElement(name);
+			refreshPlayerList();
 		}
 		
-		//register for async callback
-	      clientCallback.doCallback(new Callback() {
-	         public void executeCallback(Notifier n, Object arg) {
-	            sendClient(clientList.clients());
-	            n.resetCallbackTime();
-	         }
-	      });
+		broadcastClients();
 	}
 	
-	public synchronized void updateClient(Client client){
+	public void updateClient(Client client){
 		logger.log(client.name + " is now " + client.state);
 		if ( clientList.update(client) )
-			sendClient(clientList.clients());
+			broadcastClients();
 		else
 			register(client, false);
 	}
 	
 	/**
-	 * Sends out the clients to update the playerList on the WordMoleClient
+	 * Records a sign of life from a player, for calls that reach a game or
+	 * an invitation instead of the server, so busy players are not probed.
+	 * @param client - Client - Player that made a call.
+	 */
+	public void seen(Client client){
+		liveness.seen(client);
+	}
+	
+	/**
+	 * Tells the RosterObserver, if there is one, about the new player list.
+	 */
+	private void refreshPlayerList(){
+		RosterObserver observer = rosterObserver;
+		
+		if ( observer != null )
+			observer.rosterChanged(clientList.snapshot());
+	}
+	
+	/**
+	 * Sets what watches the player list, e.g. the AdminFrame.
+	 * @param observer - RosterObserver - null for nobody.
+	 */
+	public void setRosterObserver(RosterObserver observer){
+		rosterObserver = observer;
+	}
+	
+	/**
+	 * Returns the current player list.
+	 * @return RosterSnapshot
+	 */
+	public RosterSnapshot getRoster(){
+		return clientList.snapshot();
+	}
+	
+	/**
+	 * Queues a player list broadcast. Changes that come in while a broadcast
+	 * is still pending fold into it, so a burst of joins sends the list out
+	 * once, as it is when the broadcast runs.
+	 */
+	private void broadcastClients(){
+		clientCallback.coalesce(rosterBroadcast, CallbackPriority.ROSTER, rosterBroadcast, null, rosterDelay);
+	}
+	
+	/**
+	 * Sets how long a player list broadcast waits for more changes.
+	 * @param delay - long - Delay in milliseconds, 0 to broadcast at once.
+	 */
+	public void setRosterDelay(long delay){
+		rosterDelay = delay;
+	}
+	
+	public long getRosterDelay(){
+		return rosterDelay;
+	}
+	
+	/**
+	 * Sends out the clients to update the playerList on the WordMoleClient.
+	 * Each client gets the update on its own callback lane, so updates reach
+	 * a client in the order they were sent and a slow client does not hold
+	 * up the others. A client that falls too far behind loses its oldest
+	 * updates, which the newer ones supersede anyway. Clients that are a
+	 * RosterListener only get what changed, see sendRoster().
 	 * @param clients - Client[] - all Clients.
 	 */
-	public synchronized void sendClient(Client [] clients){
-		WordMoleClient currentClient = null;
-		try{
-			for ( Iterator<WordMoleClient> it = clientList.iterator(); it.hasNext(); ){
-				currentClient = it.next();
-				currentClient.updateClientList(clients);
-			}
-		}catch (RemoteException re){
-			try {
-				register(currentClient, clientList.get(currentClient), false);
-			} catch (RemoteException e) {
-				e.printStackTrace();
+	public void sendClient(final Client [] clients){
+		for ( Iterator<WordMoleClient> it = clientList.iterator(); it.hasNext(); ){
+			final WordMoleClient currentClient = it.next();
+			if ( liveness.isSuspected(currentClient) )
+				continue;
+			
+			clientCallback.doCallbackOn(currentClient, CallbackPriority.ROSTER, new Callback() {
+				public void executeCallback(Notifier n, Object arg) {
+					try{
+						sendRoster(currentClient, clients);
+						liveness.seen(currentClient);
+					}catch (RemoteException re){
+						dropClient(currentClient);
+					}
+					n.resetCallbackTime();
+				}
+			}, null, CLIENT_TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Brings the player list of one client up to date. Clients that keep a
+	 * versioned list get the changes since the version they last took, or
+	 * the whole list if they are too far behind; others get the whole list.
+	 * @param client - WordMoleClient - Client to update.
+	 * @param clients - Client[] - all Clients, for clients without a version.
+	 */
+	private void sendRoster(WordMoleClient client, Client [] clients) throws RemoteException{
+		if ( !(client instanceof RosterListener) ){
+			client.updateClientList(clients);
+			return;
+		}
+		
+		RosterListener listener = (RosterListener)client;
+		long acked = clientList.acknowledged(client);
+		RosterChange [] changes = clientList.changesSince(acked);
+		
+		if ( changes == null ){
+			RosterSnapshot snapshot = clientList.snapshot();
+			listener.rosterSnapshot(snapshot);
+			clientList.acknowledge(client, snapshot.getVersion());
+		} else if ( changes.length > 0 ){
+			listener.rosterDelta(acked, changes);
+			clientList.acknowledge(client, changes[changes.length-1].getVersion());
+		}
+	}
+	
+	/**
+	 * Probes a client that has no Heartbeat with a call that changes
+	 * nothing: an empty change list for a RosterListener, and the player
+	 * list it already has for any other client.
+	 * @param client - WordMoleClient - Client to probe.
+	 */
+	void probe(WordMoleClient client) throws RemoteException{
+		if ( client instanceof RosterListener )
+			((RosterListener)client).rosterDelta(clientList.acknowledged(client), new RosterChange[0]);
+		else
+			client.updateClientList(clientList.clients());
+	}
+	
+	/**
+	 * Marks a client that could not be reached. Broadcasts skip it from now
+	 * on and the next liveness sweep evicts it together with any others.
+	 * @param client - WordMoleClient - Client that failed.
+	 */
+	private void dropClient(WordMoleClient client){
+		liveness.suspect(client);
+	}
+	
+	/**
+	 * Marks a client whose connection went away, like one that failed a
+	 * call.
+	 * @param client - WordMoleClient - Client that is gone.
+	 */
+	public void disconnected(WordMoleClient client){
+		dropClient(client);
+	}
+	
+	/**
+	 * Unregisters clients that stopped answering, with one player list
+	 * broadcast for all of them.
+	 * @param clients - Collection<WordMoleClient> - Clients to evict.
+	 */
+	void evict(Collection<WordMoleClient> clients){
+		for ( WordMoleClient client : clients ){
+			Client name = clientList.get(client);
+			
+			// It may have shown up again since the sweep.
+			if ( name != null && liveness.isSuspected(client) ){
+				logger.log(name.name + " timed out");
+				clientList.remove(name);
 			}
 		}
+		refreshPlayerList();
+		broadcastClients();
 	}
 	
 	public Invitation createInvite(Invite invite) throws RemoteException {
 		logger.log(invite.getHost().name + " created an invite in CREATEINVITE");
+		liveness.seen(invite.getHost());
 		InvitationImpl ii = new InvitationImpl(invite, this, clientCallback);
-		return ii;
+		return ii.getReference();
 	}
 
 	//TODO add in the word mole client list if the client has invite? or has game?
-	public synchronized void createGame(Game game) throws RemoteException {
+	public void createGame(Game game) throws RemoteException {
 		logger.log(game.getPlayers()[0].name + " has a game going in CREATEGAME");
-		GameImpl gi = new GameImpl(game, this, clientCallback);
+		GameImpl gi = new GameImpl(game, this, gameCallback, GAME_TICK);
+		
+		// Players that were queued as well are in a game now.
+		matchQueue.removePlayers(game.getPlayers());
+	}
+
+	public void joinQueue(Client client, int players) throws RemoteException {
+		joinQueue(client, players, MatchQueue.UNRATED);
+	}
+	
+	public void joinQueue(Client client, int players, int rating) throws RemoteException {
+		logger.log(client.name + " is looking for a " + players + " player game in JOINQUEUE");
+		liveness.seen(client);
+		matchQueue.joinQueue(client, players, rating);
+	}
+	
+	public void leaveQueue(Client client) throws RemoteException {
+		logger.log(client.name + " left the queue in LEAVEQUEUE");
+		liveness.seen(client);
+		matchQueue.leaveQueue(client);
 	}
 
 	public void postMessage(final Client sender, final String message) throws RemoteException {
 		logger.log(sender.name + " sent a message");
-	      //register for async callback
-	      clientCallback.doCallback(new Callback() {
-	         public void executeCallback(Notifier n, Object arg) {
-	            sendMessage(sender, message);
-	            n.resetCallbackTime();
-	         }
-	      });		
+		liveness.seen(sender);
+		sendMessage(sender, message);
 	}
 	
 	/**
-	 * Sends the message to everyone that is connected.
+	 * Sends the message to everyone that is connected. The line is only
+	 * formatted once and goes into each client's ChatBatch, which is sent
+	 * on the client's callback lane once the chat window has passed.
 	 * @param sender - String -  Sender of the message.
 	 * @param message - String - Message to be displayed.
 	 */
-	public synchronized void sendMessage(Client sender, String message){
-		WordMoleClient currentClient = null;
-		try{
+	public void sendMessage(Client sender, String message){
+		String text = "  " + sender + ": " + message + "\n";
+		
+		// Only queues the line, so holding the history is cheap. It keeps a
+		// replay from overtaking or repeating a line that is going out.
+		synchronized(chatHistory){
+			chatHistory.add(text);
 			for ( Iterator<WordMoleClient> it = clientList.iterator(); it.hasNext(); ){
-				currentClient = it.next();
-				if ( !clientList.get(currentClient).state.equals(PlayerState.PLAYING) ){
-					currentClient.displayMessage("  " + sender + ": " + message + "\n");
+				WordMoleClient currentClient = it.next();
+				Client name = clientList.get(currentClient);
+				ChatBatch batch = clientList.chat(currentClient);
+				
+				if ( name != null && batch != null && !name.state.equals(PlayerState.PLAYING)
+						&& !liveness.isSuspected(currentClient)
+						&& batch.add(text, CHAT_BACKLOG) ){
+					sendChat(currentClient, batch);
 				}
 			}
-		}catch (RemoteException re){
-			try {
-				register(currentClient, clientList.get(currentClient), false);
-			} catch (RemoteException e) {
-				e.printStackTrace();
-			}
 		}
 	}
+	
+	/**
+	 * Queues the recent chat for a client that joined or came back to the
+	 * lobby. It goes out in one call together with anything else waiting.
+	 * @param client - WordMoleClient - Client to catch up, null is ignored.
+	 */
+	private void replayChat(WordMoleClient client){
+		ChatBatch batch = (client != null) ? clientList.chat(client) : null;
+		
+		if ( batch == null )
+			return;
+		
+		synchronized(chatHistory){
+			String history = chatHistory.replay();
+			
+			if ( history != null && batch.add(history, CHAT_BACKLOG) )
+				sendChat(client, batch);
+		}
+	}
+	
+	/**
+	 * Sends the lines a client collected during the chat window in one call.
+	 * @param client - WordMoleClient - Client to send to.
+	 * @param batch - ChatBatch - Its waiting lines.
+	 */
+	private void sendChat(final WordMoleClient client, final ChatBatch batch){
+		clientCallback.getTimer().schedule(new Runnable(){
+			public void run(){
+				clientCallback.doCallbackOn(client, CallbackPriority.CHAT, new Callback() {
+					public void executeCallback(Notifier n, Object arg) {
+						String text = batch.drain();
+						
+						try{
+							if ( text != null ){
+								client.displayMessage(text);
+								liveness.seen(client);
+							}
+						}catch (RemoteException re){
+							dropClient(client);
+						}
+						n.resetCallbackTime();
+					}
+				}, null, CLIENT_TIMEOUT);
+			}
+		}, CHAT_WINDOW);
+	}
 
+	/**
+	 * Returns the registry of live games and invitations.
+	 * @return SessionRegistry
+	 */
+	public SessionRegistry getSessions(){
+		return sessions;
+	}
+	
+	/**
+	 * Returns the dictionary the games score words with.
+	 * @return Lexicon, null if there is none.
+	 */
+	public Lexicon getLexicon(){
+		return lexicon;
+	}
+	
+	public Logger getLogger(){
+		return logger;
+	}
+	
 	/**
 	 * Returns the WordMoleClient associated with the username.
 	 * @param client - Client - Username for the requested WordMoleClient.
@@ -250,10 +551,52 @@ public class WordMoleServerImpl extends JFrame implements WordMoleServer{
 	public WordMoleClient getClient(Client client){
 		return clientList.get(client);
 	}
+	
+	/**
+	 * Returns the WordMoleClient of the player with a key.
+	 * @param key - long - Player key, see getPlayerKey().
+	 * @return WordMoleClient, null if the player has left since.
+	 */
+	public WordMoleClient getClient(long key){
+		return clientList.stub(key);
+	}
+	
+	/**
+	 * Returns the server's own Client of the player with a key.
+	 * @param key - long - Player key, see getPlayerKey().
+	 * @return Client, null if the player has left since.
+	 */
+	public Client getPlayer(long key){
+		return clientList.player(key);
+	}
+	
+	/**
+	 * Returns the key of a player: its dense player id together with the
+	 * generation of the id, so a key is never taken for a later player that
+	 * got the same id.
+	 * @param client - Client - Any Client with the player's name.
+	 * @return long, -1 if the player is not connected.
+	 */
+	public long getPlayerKey(Client client){
+		return clientList.key(client);
+	}
+	
+	/**
+	 * Returns the server's own Client for a player, so what is kept does
+	 * not hold on to the copies the remote calls bring along.
+	 * @param client - Client - Any Client with the player's name.
+	 * @return Client, or client itself if the player is not connected.
+	 */
+	public Client intern(Client client){
+		return clientList.intern(client);
+	}
 
 	private void bind(){
 		try {
-			UnicastRemoteObject.exportObject(this);
+			if ( TunedSocketFactory.getConfigured() == null )
+				UnicastRemoteObject.exportObject(this);
+			else
+				TunedSocketFactory.export(this);
 		} catch (RemoteException e) {
 			e.printStackTrace();
 		}
@@ -261,14 +604,24 @@ public class WordMoleServerImpl extends JFrame implements WordMoleServer{
 	}
 	
 	public static void main(String [] args) throws RemoteException{
-		WordMoleServerImpl wm = new WordMoleServerImpl();	
+		final WordMoleServerImpl wm = new WordMoleServerImpl();	
 		//System.setSecurityManager(new RMISecurityManager());
 		
 		Registry reg = LocateRegistry.createRegistry(8888);
 		reg.rebind("WordMoleServer", wm);
-		wm.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		wm.setSize(new Dimension(300,450));
-		wm.setVisible(true);
 		wm.bind();
+		
+		Runtime.getRuntime().addShutdownHook(new Thread("WordMole shutdown"){
+			public void run(){
+				wm.shutdown();
+			}
+		});
+		if ( HEADLESS ){
+			wm.logger.log("Running headless");
+			return;
+		}
+		
+		// The window only comes up once the server is taking calls.
+		AdminFrame.open(wm);
 	}
 }
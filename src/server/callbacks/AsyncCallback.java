@@ -21,7 +21,21 @@
 
 package server.callbacks;
 
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AsyncCallback {
    private int fNumNotifiers;
@@ -29,17 +43,40 @@ public class AsyncCallback {
    private Vector<CallbackRequest> fCallbacks = new Vector<CallbackRequest>();
    private Vector<Notifier> fNotifiers = new Vector<Notifier>();
    private long fMaxCalltime = SIXTY_SECONDS;
-   private Thread fSweeper = new SweeperThread();
+   private TimingWheel fTimer = new TimingWheel("Callback timer", 1, 1024);
+   private PriorityCallbackQueue fQueue;
+   private int[] fCapacities = new int[CallbackPriority.values().length];
+   private OverflowPolicy[] fPolicies =
+      new OverflowPolicy[CallbackPriority.values().length];
+   private ExecutorService fExecutor;
+   private ExecutorService fFanout;
+   private Set<Notifier> fActive =
+      Collections.newSetFromMap(new ConcurrentHashMap<Notifier, Boolean>());
+   private AtomicLong fNextId = new AtomicLong();
+   private Queue<Notifier> fSpare = new ConcurrentLinkedQueue<Notifier>();
+   private AtomicInteger fSpareCount = new AtomicInteger();
+   private ConcurrentHashMap<Object, CallbackLane> fLanes =
+      new ConcurrentHashMap<Object, CallbackLane>();
+   private ConcurrentHashMap<Object, CoalescedCallback> fCoalesced =
+      new ConcurrentHashMap<Object, CoalescedCallback>();
 
    public static final long TEN_SECONDS = 10000;
    public static final long THIRTY_SECONDS = 30000;
    public static final long SIXTY_SECONDS = 60000;
-   public static int SWEEP_RATE = 4000;
+   public static final int PER_REQUEST = -1;
+   /** Most idle notifiers the PER_REQUEST mode keeps for reuse. */
+   public static final int MAX_SPARE_NOTIFIERS = 256;
+   public static final CallbackPriority DEFAULT_PRIORITY = CallbackPriority.ROSTER;
 
    /**
     * Constructor
     * @param priority -  int -  Priority of the Callback threads.
-    * @param num - int - Number of Callback threads
+    * @param num - int - Number of Callback threads, or PER_REQUEST to run
+    *    every request on a thread of its own. PER_REQUEST uses a virtual
+    *    thread per request when the JVM has them (Java 21), so blocking
+    *    calls to slow clients do not hold up the other requests.
+    *    Callbacks run in the order they are queued in both modes; priority
+    *    classes and overflow bounds need the ring dispatch constructor.
     */
    public AsyncCallback(int priority, int num) {
       if (priority<Thread.MIN_PRIORITY || priority>Thread.MAX_PRIORITY) {
@@ -49,12 +86,89 @@ public class AsyncCallback {
       
       fNumNotifiers = num;
       fPriority = priority;
-      fSweeper.start();
+      Arrays.fill(fCapacities, Integer.MAX_VALUE);
+      Arrays.fill(fPolicies, OverflowPolicy.BLOCK);
+   }
+
+   /**
+    * Constructor for the ring dispatch mode. Requests are kept in
+    * preallocated rings of reusable slots instead of a Vector, one per
+    * priority class, so a steady state doCallback() does not allocate a
+    * CallbackRequest and the notifiers claim requests without locking the
+    * AsyncCallback. Notifiers serve the highest class first. doCallback()
+    * waits if the ring of its class is full, unless setOverflowPolicy()
+    * says otherwise.
+    * @param priority -  int -  Priority of the Callback threads.
+    * @param num - int - Number of Callback threads
+    * @param ringSize - int - Slots per class, rounded up to a power of two.
+    */
+   public AsyncCallback(int priority, int num, int ringSize) {
+      this(priority, num);
+      if (num == PER_REQUEST) {
+         throw new IllegalArgumentException("Ring dispatch needs notifier threads");
+      }
+      fQueue = new PriorityCallbackQueue(ringSize);
+   }
+
+   /**
+    * Bounds the callbacks of a priority class and sets what happens when
+    * the bound is hit. The bound applies to each lane on its own and to the
+    * ring of the class. Must be called before start(). By default nothing
+    * is bounded but the rings, which block.
+    *
+    * Only the ring dispatch mode has priority classes and bounds. The
+    * Vector and PER_REQUEST modes run callbacks in the order they came in,
+    * without a limit, so they refuse this call rather than pretend to
+    * honour it.
+    * @param p - CallbackPriority - Class to bound.
+    * @param capacity - int - Callbacks of the class that may wait at once.
+    * @param policy - OverflowPolicy - What doCallback() does when the class is full.
+    */
+   public synchronized void setOverflowPolicy(CallbackPriority p, int capacity,
+                                              OverflowPolicy policy) {
+      if (p == null || policy == null) {
+         throw new NullPointerException();
+      }
+      if (capacity < 1) {
+         throw new IllegalArgumentException("Invalid capacity: " + capacity);
+      }
+      if (fQueue == null) {
+         throw new IllegalStateException("Overflow policies need the ring dispatch mode");
+      }
+      if (fNotifiers.size() > 0 || fExecutor != null) {
+         throw new IllegalStateException("AsyncCallback already started");
+      }
+
+      fCapacities[p.ordinal()] = capacity;
+      fPolicies[p.ordinal()] = policy;
+      // A ring needs at least two slots; the lanes keep the exact bound.
+      fQueue.setOverflowPolicy(p, Math.max(2, capacity), policy);
+   }
+
+   /**
+    * Gets the number of callbacks of a class that may wait at once.
+    */
+   public int getCapacity(CallbackPriority p) {
+      return fCapacities[p.ordinal()];
+   }
+
+   public OverflowPolicy getOverflowPolicy(CallbackPriority p) {
+      return fPolicies[p.ordinal()];
    }
 
    public synchronized void start() {
       Notifier n;
 
+      if (fNumNotifiers == PER_REQUEST) {
+         if (fExecutor != null) return;
+
+         fExecutor = newPerRequestExecutor(fPriority);
+         while (fCallbacks.size() > 0) {
+            execute(fCallbacks.remove(0));
+         }
+         return;
+      }
+
       if (fNumNotifiers == 0) return;
 
       for (int i=fNumNotifiers; i>0; i--) {
@@ -63,6 +177,10 @@ public class AsyncCallback {
       }
    }
 
+   /**
+    * Stops the notifiers and the timing wheel. The AsyncCallback cannot be
+    * started again after that.
+    */
    public synchronized void stop() {
       Enumeration<Notifier> e = fNotifiers.elements();
       Notifier n;
@@ -73,6 +191,24 @@ public class AsyncCallback {
       }
 
       fNotifiers.removeAllElements();
+
+      if (fExecutor != null) {
+         for (Notifier active : fActive) {
+            active.timeToStop();
+         }
+         fExecutor.shutdown();
+         fExecutor = null;
+         fSpare.clear();
+         fSpareCount.set(0);
+      }
+
+      if (fFanout != null) {
+         fFanout.shutdownNow();
+         fFanout = null;
+      }
+
+      // Timeouts and delayed callbacks still pending never run.
+      fTimer.timeToStop();
    }
 
    /**
@@ -86,18 +222,299 @@ public class AsyncCallback {
     *
     */
    public void doCallback(Callback c, Object arg) {
-      CallbackRequest cbr = new CallbackRequest(c, arg);
+      doCallback(c, arg, 0);
+   }
+
+   /**
+    * Queues a callback with a maximum call time of its own.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param maxCalltime - long - Time the callback may take before it is
+    *    interrupted, or 0 for getMaxCalltime().
+    */
+   public void doCallback(Callback c, Object arg, long maxCalltime) {
+      doCallback(DEFAULT_PRIORITY, c, arg, maxCalltime);
+   }
+
+   /**
+    * Queues a callback in a priority class.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    */
+   public void doCallback(CallbackPriority priority, Callback c, Object arg) {
+      doCallback(priority, c, arg, 0);
+   }
+
+   /**
+    * Queues a callback in a priority class with a maximum call time of its
+    * own. Priority classes only order the queue in the ring dispatch mode.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param maxCalltime - long - Time the callback may take before it is
+    *    interrupted, or 0 for getMaxCalltime().
+    * @throws CallbackRejectedException if the class is full and rejects
+    *    overflow.
+    */
+   public void doCallback(CallbackPriority priority, Callback c, Object arg,
+                          long maxCalltime) {
+      if (fQueue != null) {
+         putInQueue(priority, c, arg, maxCalltime);
+         return;
+      }
+
+      CallbackRequest cbr = new CallbackRequest(c, arg, priority, maxCalltime);
       doCallback(cbr);
    }
 
+   /**
+    * Queues a callback on the lane of a key, e.g. the client or game it is
+    * meant for. Callbacks with the same key run one at a time and in the
+    * order they were queued, while callbacks of different keys run in
+    * parallel, so a slow client only holds up its own lane.
+    * @param key - Object - Lane of the callback. Keys are compared with equals().
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    */
+   public void doCallbackOn(Object key, Callback c, Object arg) {
+      doCallbackOn(key, c, arg, 0);
+   }
+
+   /**
+    * Queues a callback on the lane of a key with a maximum call time of
+    * its own.
+    * @param key - Object - Lane of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param maxCalltime - long - Time the callback may take before it is
+    *    interrupted, or 0 for getMaxCalltime().
+    */
+   public void doCallbackOn(Object key, Callback c, Object arg, long maxCalltime) {
+      doCallbackOn(key, DEFAULT_PRIORITY, c, arg, maxCalltime);
+   }
+
+   /**
+    * Queues a callback in a priority class on the lane of a key.
+    * @param key - Object - Lane of the callback.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    */
+   public void doCallbackOn(Object key, CallbackPriority priority, Callback c,
+                            Object arg) {
+      doCallbackOn(key, priority, c, arg, 0);
+   }
+
+   /**
+    * Queues a callback in a priority class on the lane of a key with a
+    * maximum call time of its own. The lane holds at most getCapacity()
+    * waiting callbacks of the class; beyond that the overflow policy of the
+    * class applies.
+    * @param key - Object - Lane of the callback.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param maxCalltime - long - Time the callback may take before it is
+    *    interrupted, or 0 for getMaxCalltime().
+    * @throws CallbackRejectedException if the class is full and rejects
+    *    overflow.
+    */
+   public void doCallbackOn(Object key, CallbackPriority priority, Callback c,
+                            Object arg, long maxCalltime) {
+      CallbackRequest cbr = new CallbackRequest(c, arg, priority, maxCalltime);
+
+      while (true) {
+         CallbackLane lane = fLanes.get(key);
+
+         if (lane == null) {
+            CallbackLane created = new CallbackLane(key, this);
+            lane = fLanes.putIfAbsent(key, created);
+            if (lane == null) lane = created;
+         }
+
+         if (lane.add(cbr)) return;
+
+         // The lane retired between the lookup and the add; make a new one.
+         fLanes.remove(key, lane);
+      }
+   }
+
+   /**
+    * Queues a "latest wins" callback for a key. While a callback queued
+    * for the key has not started yet, newer ones replace it instead of
+    * being queued as well, so a burst of e.g. player list broadcasts costs
+    * one broadcast. The callback is held back for the debounce delay first
+    * so the whole burst can come in.
+    * @param key - Object - What the callback is about. Keys are compared with equals().
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param delay - long - Debounce delay in milliseconds, or 0 to queue at once.
+    * @return false if a pending callback absorbed this one.
+    */
+   public boolean coalesce(Object key, Callback c, Object arg, long delay) {
+      return coalesce(key, DEFAULT_PRIORITY, c, arg, delay);
+   }
+
+   /**
+    * Queues a "latest wins" callback for a key in a priority class.
+    * @param key - Object - What the callback is about.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param delay - long - Debounce delay in milliseconds, or 0 to queue at once.
+    * @return false if a pending callback absorbed this one.
+    */
+   public boolean coalesce(Object key, CallbackPriority priority, Callback c,
+                           Object arg, long delay) {
+      CoalescedCallback created = null;
+
+      while (true) {
+         CoalescedCallback pending = fCoalesced.get(key);
+
+         if (pending != null) {
+            if (pending.replace(c, arg)) return false;
+
+            // It started already; make way for a new one.
+            fCoalesced.remove(key, pending);
+            continue;
+         }
 
-   public synchronized void doCallback(CallbackRequest c) {
-      fCallbacks.addElement(c);
-      notify();
+         if (created == null) {
+            created = new CoalescedCallback(key, priority, this, c, arg);
+         }
+         if (fCoalesced.putIfAbsent(key, created) == null) break;
+      }
+
+      if (delay > 0) {
+         fTimer.schedule(created, delay);
+      } else {
+         created.run();
+      }
+      return true;
+   }
+
+   /**
+    * Forgets the pending callback of a key once it started, or once the
+    * queue dropped or rejected it, so the next submission for the key is
+    * queued again.
+    */
+   void coalescedDone(Object key, CoalescedCallback c) {
+      fCoalesced.remove(key, c);
+   }
+
+   /**
+    * Queues a lane that has work in a priority class. Never waits, so
+    * notifiers can requeue the lane they are running.
+    */
+   void scheduleLane(CallbackLane lane, CallbackPriority p) {
+      if (fQueue != null) {
+         fQueue.putLane(p, lane);
+      } else {
+         doCallback(new CallbackRequest(lane, null, p, 0));
+      }
+   }
+
+   void retireLane(CallbackLane lane) {
+      fLanes.remove(lane.getKey(), lane);
+   }
+
+   /**
+    * Tells whether the current thread is one of our notifiers.
+    */
+   boolean isNotifierThread() {
+      Thread t = Thread.currentThread();
+      return t instanceof Notifier && ((Notifier)t).belongsTo(this);
+   }
+
+   /**
+    * Puts a request into the ring of its class. A notifier of this
+    * AsyncCallback never waits for a full ring, since the ring might only
+    * drain through the notifiers themselves; it runs the callback itself
+    * instead.
+    */
+   private void putInQueue(CallbackPriority p, Callback c, Object arg,
+                           long maxCalltime) {
+      if (!fQueue.put(p, c, arg, maxCalltime, !isNotifierThread())) {
+         c.executeCallback((Notifier)Thread.currentThread(), arg);
+      }
+   }
+
+
+   public void doCallback(CallbackRequest c) {
+      if (fQueue != null) {
+         putInQueue(c.getPriority(), c.getCallback(), c.getArg(),
+                    c.getMaxCalltime());
+         return;
+      }
+
+      synchronized(this) {
+         if (fExecutor != null) {
+            execute(c);
+            return;
+         }
+         fCallbacks.addElement(c);
+         notify();
+      }
+   }
+
+   /**
+    * Hands a request to the per request executor. The executor thread runs
+    * it with a spare notifier, so only as many notifiers are ever made as
+    * requests run at once, up to MAX_SPARE_NOTIFIERS kept.
+    */
+   private void execute(final CallbackRequest c) {
+      fExecutor.execute(new Runnable() {
+         public void run() {
+            Notifier n = fSpare.poll();
+
+            if (n != null) {
+               fSpareCount.decrementAndGet();
+            } else {
+               n = new Notifier(fNextId.incrementAndGet(), AsyncCallback.this);
+            }
+
+            n.runOnce(c);
+            if (fSpareCount.incrementAndGet() <= MAX_SPARE_NOTIFIERS) {
+               fSpare.add(n);
+            } else {
+               fSpareCount.decrementAndGet();
+            }
+         }
+      });
+   }
+
+   /**
+    * Creates the executor for the PER_REQUEST mode. Virtual threads are looked
+    * up reflectively so the server still runs on older JVMs, where it falls
+    * back to a cached pool of platform threads.
+    */
+   private static ExecutorService newPerRequestExecutor(final int priority) {
+      try {
+         Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService)m.invoke(null);
+      } catch (Exception ex) {
+         return Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r);
+               t.setPriority(priority);
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+   }
+
+   void callbackStarted(Notifier n) {
+      fActive.add(n);
+   }
+
+   void callbackFinished(Notifier n) {
+      fActive.remove(n);
    }
  
    /**
-    * 
+    * Gets the number of notifier threads, or PER_REQUEST.
     */
    public int getNumThreads() {
       return fNumNotifiers;
@@ -117,13 +534,167 @@ public class AsyncCallback {
       return fMaxCalltime;
    }
 
-   public void checkForTimeout(long curr, long max) {
-      Enumeration<Notifier> e = fNotifiers.elements();
+   /**
+    * Gets the timing wheel that enforces the maximum call times.
+    */
+   public TimingWheel getTimer() {
+      return fTimer;
+   }
 
-      while (e.hasMoreElements()) {
-         Notifier n = (Notifier)e.nextElement();
-         n.checkForTimeout(curr, max);
+   /**
+    * Queues a callback once a delay has passed, e.g. to time out an
+    * invitation or a game start.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param delay - long - Delay in milliseconds.
+    * @return Timeout that can be used to cancel the callback.
+    */
+   public TimingWheel.Timeout schedule(final Callback c, final Object arg, long delay) {
+      return fTimer.schedule(new Runnable() {
+         public void run() {
+            doCallback(c, arg);
+         }
+      }, delay);
+   }
+
+   /**
+    * Queues a callback on the lane of a key once a delay has passed.
+    * @param key - Object - Lane of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param delay - long - Delay in milliseconds.
+    * @return Timeout that can be used to cancel the callback.
+    */
+   public TimingWheel.Timeout schedule(Object key, Callback c, Object arg,
+                                       long delay) {
+      return schedule(key, DEFAULT_PRIORITY, c, arg, delay);
+   }
+
+   /**
+    * Queues a callback in a priority class on the lane of a key once a
+    * delay has passed.
+    * @param key - Object - Lane of the callback.
+    * @param priority - CallbackPriority - Class of the callback.
+    * @param c - Callback - Callback to run.
+    * @param arg - Object - Argument passed to the callback.
+    * @param delay - long - Delay in milliseconds.
+    * @return Timeout that can be used to cancel the callback.
+    */
+   public TimingWheel.Timeout schedule(final Object key,
+                                       final CallbackPriority priority,
+                                       final Callback c, final Object arg,
+                                       long delay) {
+      return fTimer.schedule(new Runnable() {
+         public void run() {
+            doCallbackOn(key, priority, c, arg);
+         }
+      }, delay);
+   }
+
+   /**
+    * Sends something to a set of recipients at once and waits until every
+    * recipient has it or the timeout has passed, so a broadcast takes as
+    * long as the slowest live recipient instead of the sum of them all.
+    * Deliveries run on threads of their own, not on the notifiers, so a
+    * callback may broadcast without tying up the other notifiers.
+    * @param recipients - Collection - Who gets the broadcast.
+    * @param delivery - Delivery - Sends it to one recipient.
+    * @param timeout - long - Time the recipients get, in milliseconds.
+    * @return The recipients that failed, with what went wrong, in the order
+    *    they were given. A recipient that ran out of time fails with a
+    *    TimeoutException.
+    */
+   public <T> Map<T, Exception> broadcast(Collection<? extends T> recipients,
+                                          final Delivery<T> delivery, long timeout) {
+      Map<T, Exception> failed = new LinkedHashMap<T, Exception>();
+      List<T> targets = new ArrayList<T>(recipients);
+      Exception[] errors = deliver(targets, delivery, timeout);
+
+      for (int i=0; i<errors.length; i++) {
+         if (errors[i] != null) {
+            failed.put(targets.get(i), errors[i]);
+         }
+      }
+      return failed;
+   }
+
+   /**
+    * Sends something to the recipients in an array, like
+    * broadcast(Collection, Delivery, long), for callers that keep their
+    * recipients by index, e.g. by seat, and want the failures the same way.
+    * @param recipients - T[] - Who gets the broadcast, null slots are skipped.
+    * @param delivery - Delivery - Sends it to one recipient.
+    * @param timeout - long - Time the recipients get, in milliseconds.
+    * @return Exception[] - What went wrong, at the index of each recipient
+    *    that failed, null for the others.
+    */
+   public <T> Exception[] broadcast(T[] recipients, final Delivery<T> delivery,
+                                    long timeout) {
+      Exception[] failed = new Exception[recipients.length];
+      List<T> targets = new ArrayList<T>(recipients.length);
+      int[] index = new int[recipients.length];
+
+      for (int i=0; i<recipients.length; i++) {
+         if (recipients[i] != null) {
+            index[targets.size()] = i;
+            targets.add(recipients[i]);
+         }
+      }
+
+      Exception[] errors = deliver(targets, delivery, timeout);
+      for (int i=0; i<errors.length; i++) {
+         failed[index[i]] = errors[i];
+      }
+      return failed;
+   }
+
+   private <T> Exception[] deliver(List<T> targets, final Delivery<T> delivery,
+                                   long timeout) {
+      Exception[] failed = new Exception[targets.size()];
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(targets.size());
+      List<Future<Object>> results;
+
+      if (targets.isEmpty()) return failed;
+
+      for (final T recipient : targets) {
+         tasks.add(new Callable<Object>() {
+            public Object call() throws Exception {
+               delivery.deliver(recipient);
+               return null;
+            }
+         });
       }
+
+      try {
+         results = getFanout().invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+         // The caller ran out of time itself; that says nothing about
+         // the recipients.
+         Thread.currentThread().interrupt();
+         return failed;
+      }
+
+      for (int i=0; i<targets.size(); i++) {
+         try {
+            results.get(i).get();
+         } catch (CancellationException ex) {
+            failed[i] = new TimeoutException("No answer in " + timeout + " ms");
+         } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            failed[i] = cause instanceof Exception ? (Exception)cause : ex;
+         } catch (InterruptedException ex) {
+            // invokeAll() only returns once every task is done.
+            Thread.currentThread().interrupt();
+         }
+      }
+      return failed;
+   }
+
+   private synchronized ExecutorService getFanout() {
+      if (fFanout == null) {
+         fFanout = newPerRequestExecutor(fPriority);
+      }
+      return fFanout;
    }
 
    /**
@@ -132,6 +703,11 @@ public class AsyncCallback {
    public void waitForCallback(Notifier n) throws InterruptedException {
       CallbackRequest req = null;
 
+      if (fQueue != null) {
+         n.setRequest(fQueue.take(n.getSlot()));
+         return;
+      }
+
       synchronized(this) {
          while (fCallbacks.size() == 0) {
             wait();
@@ -143,24 +719,4 @@ public class AsyncCallback {
 
       n.setRequest(req);
    }
-
-   private class SweeperThread extends Thread {
-	  public SweeperThread() {
-         setPriority(MIN_PRIORITY);
-         setDaemon(true);
-      }
-
-      public void run() {
-         while (true) {
-            try {
-               sleep(SWEEP_RATE);
-            } catch (InterruptedException ex) {}
-            
-            long max = fMaxCalltime;
-            long curr = System.currentTimeMillis();
-
-            checkForTimeout(curr, max);
-         }
-      }
-   }
 }
@@ -0,0 +1,213 @@
+/*
+ * CallbackLane.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server.callbacks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A serial queue of callbacks for one key (a client, a game...). The lane
+ * itself is the callback handed to the AsyncCallback: every time it runs it
+ * executes the oldest request of the key and puts itself back at the end of
+ * the AsyncCallback queue if there is more, so requests of one key run in
+ * order and one at a time while different keys run in parallel. The lane is
+ * queued in the priority class of the request it is going to run next.
+ *
+ * The number of requests waiting in a lane is bounded per priority class by
+ * the AsyncCallback's overflow settings, so a client that cannot keep up
+ * does not make the heap grow without limit.
+ *
+ * A lane retires itself once it has no work left so idle keys do not pile
+ * up. Retiring is done by moving the pending count to -1, after which add()
+ * refuses requests and the caller has to create a new lane.
+ */
+final class CallbackLane implements Callback {
+   private final Object fKey;
+   private final AsyncCallback fOwner;
+   private final Queue<CallbackRequest> fRequests =
+      new ConcurrentLinkedQueue<CallbackRequest>();
+   private final AtomicInteger fPending = new AtomicInteger();
+   private final AtomicIntegerArray fWaiting =
+      new AtomicIntegerArray(CallbackPriority.values().length);
+   private final Object fRoom = new Object();
+   private final AtomicInteger fWaitingProducers = new AtomicInteger();
+
+   CallbackLane(Object key, AsyncCallback owner) {
+      fKey = key;
+      fOwner = owner;
+   }
+
+   Object getKey() {
+      return fKey;
+   }
+
+   /**
+    * Adds a request to the lane, scheduling the lane if it was idle.
+    * @return false if the lane has retired.
+    * @throws CallbackRejectedException if the request's class is full and
+    *    rejects overflow.
+    */
+   boolean add(CallbackRequest c) {
+      if (fPending.get() < 0) return false;
+
+      admit(c.getPriority());
+
+      // The request goes in before it is counted, so the queue always holds
+      // at least as many requests as fPending says.
+      fRequests.add(c);
+
+      while (true) {
+         int pending = fPending.get();
+
+         if (pending < 0) return false;
+         if (fPending.compareAndSet(pending, pending + 1)) {
+            if (pending == 0) {
+               fOwner.scheduleLane(this, c.getPriority());
+            }
+            return true;
+         }
+      }
+   }
+
+   /**
+    * Makes room for one more request of a class, applying the overflow
+    * policy of the class if the lane already holds as many as it may.
+    */
+   private void admit(CallbackPriority p) {
+      int idx = p.ordinal();
+      int limit = fOwner.getCapacity(p);
+
+      while (true) {
+         int waiting = fWaiting.get(idx);
+
+         if (waiting < limit) {
+            if (fWaiting.compareAndSet(idx, waiting, waiting + 1)) return;
+            continue;
+         }
+
+         switch (fOwner.getOverflowPolicy(p)) {
+         case REJECT:
+            throw new CallbackRejectedException(p);
+         case DROP_OLDEST:
+            if (!dropOldest(p)) {
+               fWaiting.incrementAndGet(idx);
+               return;
+            }
+            break;
+         default:
+            if (fOwner.isNotifierThread() || !waitForRoom(idx, limit)) {
+               fWaiting.incrementAndGet(idx);
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Drops the oldest request of a class that has not started yet.
+    * @return false if there was none.
+    */
+   private boolean dropOldest(CallbackPriority p) {
+      for (CallbackRequest c : fRequests) {
+         if (c.getPriority() == p && c.drop()) {
+            freeRoom(p.ordinal());
+            CoalescedCallback.dropped(c.getCallback());
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Waits until the lane has room for a request of a class.
+    * @return false if the wait was interrupted.
+    */
+   private boolean waitForRoom(int idx, int limit) {
+      synchronized(fRoom) {
+         fWaitingProducers.incrementAndGet();
+         try {
+            while (fWaiting.get(idx) >= limit) {
+               fRoom.wait();
+            }
+            return true;
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+         } finally {
+            fWaitingProducers.decrementAndGet();
+         }
+      }
+   }
+
+   private void freeRoom(int idx) {
+      fWaiting.decrementAndGet(idx);
+
+      if (fWaitingProducers.get() > 0) {
+         synchronized(fRoom) {
+            fRoom.notifyAll();
+         }
+      }
+   }
+
+   public void executeCallback(Notifier n, Object arg) {
+      do {
+         CallbackRequest c = fRequests.poll();
+
+         // Dropped requests were already counted off by dropOldest().
+         if (!c.start()) continue;
+
+         freeRoom(c.getPriority().ordinal());
+         try {
+            n.beginCallback(c.getMaxCalltime());
+            c.callback(n);
+         } catch (RuntimeException ex) {
+            System.err.println("Unexpected callback error: " + ex);
+            ex.printStackTrace(System.err);
+         }
+      } while (next());
+   }
+
+   /**
+    * Counts off the request that just ran and hands the lane back to the
+    * AsyncCallback, in the class of its next request, if there is more to do.
+    * @return true if the caller should go on with the next request itself,
+    *    which is only the case for a dropped request.
+    */
+   private boolean next() {
+      if (fPending.decrementAndGet() > 0) {
+         CallbackRequest head = fRequests.peek();
+
+         if (head != null && !head.isWaiting()) return true;
+
+         fOwner.scheduleLane(this, head != null ? head.getPriority()
+                                                : AsyncCallback.DEFAULT_PRIORITY);
+         return false;
+      }
+
+      if (fPending.compareAndSet(0, -1)) {
+         fOwner.retireLane(this);
+      }
+      return false;
+   }
+}
@@ -21,16 +21,118 @@
 
 package server.callbacks;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public class CallbackRequest {
+    private static final AtomicIntegerFieldUpdater<CallbackRequest> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(CallbackRequest.class, "fState");
+    private static final int WAITING = 0;
+    private static final int STARTED = 1;
+    private static final int DROPPED = 2;
+
     private Callback fToCall;
     private Object fArg;
+    private long fMaxCalltime;
+    private CallbackPriority fPriority = AsyncCallback.DEFAULT_PRIORITY;
+    private volatile int fState = WAITING;
 
     public CallbackRequest(Callback c, Object arg) {
       fToCall = c;
       fArg = arg;
     }
 
+    /**
+     * Constructor
+     * @param c - Callback - Callback to run.
+     * @param arg - Object - Argument passed to the callback.
+     * @param maxCalltime - long - Time the callback may take before it is
+     *    interrupted, or 0 for the AsyncCallback's maximum call time.
+     */
+    public CallbackRequest(Callback c, Object arg, long maxCalltime) {
+      fToCall = c;
+      fArg = arg;
+      fMaxCalltime = maxCalltime;
+    }
+
+    /**
+     * Constructor
+     * @param c - Callback - Callback to run.
+     * @param arg - Object - Argument passed to the callback.
+     * @param priority - CallbackPriority - Class of the callback.
+     * @param maxCalltime - long - Time the callback may take before it is
+     *    interrupted, or 0 for the AsyncCallback's maximum call time.
+     */
+    public CallbackRequest(Callback c, Object arg, CallbackPriority priority,
+                           long maxCalltime) {
+      fToCall = c;
+      fArg = arg;
+      fPriority = priority;
+      fMaxCalltime = maxCalltime;
+    }
+
     public void callback(Notifier n) {
       fToCall.executeCallback(n, fArg);
     }
+
+    /**
+     * Reuses this request for another callback. Used by the ring dispatch
+     * mode, which keeps a fixed set of requests instead of allocating one
+     * per doCallback().
+     */
+    void set(Callback c, Object arg, long maxCalltime) {
+      fToCall = c;
+      fArg = arg;
+      fMaxCalltime = maxCalltime;
+    }
+
+    /**
+     * Moves the callback and argument of this request into another one and
+     * clears this request so the slot does not hold on to them.
+     */
+    void transferTo(CallbackRequest other) {
+      other.set(fToCall, fArg, fMaxCalltime);
+      clear();
+    }
+
+    Callback getCallback() {
+      return fToCall;
+    }
+
+    Object getArg() {
+      return fArg;
+    }
+
+    long getMaxCalltime() {
+      return fMaxCalltime;
+    }
+
+    public CallbackPriority getPriority() {
+      return fPriority;
+    }
+
+    /**
+     * Claims a queued request for running.
+     * @return false if the request was dropped first.
+     */
+    boolean start() {
+      return STATE.compareAndSet(this, WAITING, STARTED);
+    }
+
+    /**
+     * Drops a queued request so it never runs.
+     * @return false if the request has already started.
+     */
+    boolean drop() {
+      return STATE.compareAndSet(this, WAITING, DROPPED);
+    }
+
+    boolean isWaiting() {
+      return fState == WAITING;
+    }
+
+    void clear() {
+      fToCall = null;
+      fArg = null;
+      fMaxCalltime = 0;
+    }
 }
@@ -0,0 +1,271 @@
+/*
+ * CallbackRing.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server.callbacks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer/multi-consumer ring of preallocated callback
+ * requests. Producers and consumers claim slots by advancing the tail and
+ * head sequence counters with compareAndSet, so putting and taking a request
+ * never allocates and never shifts the queue. Each slot carries its own
+ * sequence number which tells whether it is free to write or ready to read.
+ *
+ * Threads only fall back to the monitors when the ring is empty (consumers)
+ * or full (producers), and the other side only takes a monitor when it knows
+ * somebody is waiting on it.
+ */
+final class CallbackRing {
+   private static final int SPINS = 64;
+
+   private final CallbackRequest[] fSlots;
+   private final AtomicLongArray fSequences;
+   private final int fMask;
+   private final AtomicLong fHead = new AtomicLong();
+   private final AtomicLong fTail = new AtomicLong();
+
+   private final Object fNotEmpty = new Object();
+   private final Object fNotFull = new Object();
+   private final AtomicInteger fWaitingConsumers = new AtomicInteger();
+   private final AtomicInteger fWaitingProducers = new AtomicInteger();
+
+   /**
+    * Constructor
+    * @param size - int - Minimum number of slots, rounded up to a power of two.
+    */
+   CallbackRing(int size) {
+      if (size < 2) {
+         throw new IllegalArgumentException("Invalid ring size: " + size);
+      }
+
+      int capacity = Integer.highestOneBit(size - 1) << 1;
+      fSlots = new CallbackRequest[capacity];
+      fSequences = new AtomicLongArray(capacity);
+      fMask = capacity - 1;
+
+      for (int i=0; i<capacity; i++) {
+         fSlots[i] = new CallbackRequest(null, null, 0);
+         fSequences.set(i, i);
+      }
+   }
+
+   int capacity() {
+      return fSlots.length;
+   }
+
+   /**
+    * Number of requests waiting in the ring. Only an estimate while other
+    * threads are putting or taking.
+    */
+   int size() {
+      long size = fTail.get() - fHead.get();
+      return (int)Math.max(0, Math.min(size, fSlots.length));
+   }
+
+   /**
+    * Puts a request into the ring if a slot is free.
+    * @return false if the ring is full.
+    */
+   boolean offer(Callback c, Object arg, long maxCalltime) {
+      if (!tryOffer(c, arg, maxCalltime)) return false;
+
+      signalConsumer();
+      return true;
+   }
+
+   /**
+    * Takes the oldest request out of the ring if there is one.
+    * @param into - CallbackRequest - Request the callback is copied into.
+    * @return false if the ring is empty.
+    */
+   boolean poll(CallbackRequest into) {
+      if (!tryPoll(into)) return false;
+
+      signalProducer();
+      return true;
+   }
+
+   private boolean tryOffer(Callback c, Object arg, long maxCalltime) {
+      long pos = fTail.get();
+      int idx;
+
+      while (true) {
+         idx = (int)(pos & fMask);
+         long diff = fSequences.get(idx) - pos;
+
+         if (diff == 0) {
+            if (fTail.compareAndSet(pos, pos + 1)) break;
+            pos = fTail.get();
+         } else if (diff < 0) {
+            return false;
+         } else {
+            pos = fTail.get();
+         }
+      }
+
+      fSlots[idx].set(c, arg, maxCalltime);
+      fSequences.set(idx, pos + 1);
+      return true;
+   }
+
+   /**
+    * Throws away the oldest request in the ring if there is one, without
+    * copying it anywhere.
+    * @return the callback of the request thrown away, null if the ring is
+    *    empty.
+    */
+   Callback drop() {
+      long pos = claimHead();
+
+      if (pos < 0) return null;
+
+      int idx = (int)(pos & fMask);
+      Callback dropped = fSlots[idx].getCallback();
+
+      fSlots[idx].clear();
+      fSequences.set(idx, pos + fMask + 1);
+      signalProducer();
+      return dropped;
+   }
+
+   /**
+    * @param into - CallbackRequest - Request the callback is copied into.
+    */
+   private boolean tryPoll(CallbackRequest into) {
+      long pos = claimHead();
+
+      if (pos < 0) return false;
+
+      int idx = (int)(pos & fMask);
+
+      fSlots[idx].transferTo(into);
+      fSequences.set(idx, pos + fMask + 1);
+      return true;
+   }
+
+   /**
+    * Claims the oldest ready slot. The caller empties it and hands it back
+    * to the producers by advancing its sequence.
+    * @return the position of the slot, -1 if the ring is empty.
+    */
+   private long claimHead() {
+      long pos = fHead.get();
+
+      while (true) {
+         int idx = (int)(pos & fMask);
+         long diff = fSequences.get(idx) - (pos + 1);
+
+         if (diff == 0) {
+            if (fHead.compareAndSet(pos, pos + 1)) return pos;
+            pos = fHead.get();
+         } else if (diff < 0) {
+            return -1;
+         } else {
+            pos = fHead.get();
+         }
+      }
+   }
+
+   /**
+    * Wakes a waiting consumer. Never called while holding fNotFull, so the
+    * two monitors are never nested.
+    */
+   private void signalConsumer() {
+      if (fWaitingConsumers.get() > 0) {
+         synchronized(fNotEmpty) {
+            fNotEmpty.notify();
+         }
+      }
+   }
+
+   private void signalProducer() {
+      if (fWaitingProducers.get() > 0) {
+         synchronized(fNotFull) {
+            fNotFull.notify();
+         }
+      }
+   }
+
+   /**
+    * Puts a request into the ring, waiting for a free slot if it is full.
+    * An interrupt while waiting is remembered but does not drop the request.
+    */
+   void put(Callback c, Object arg, long maxCalltime) {
+      boolean interrupted = false;
+
+      for (int i=0; i<SPINS; i++) {
+         if (offer(c, arg, maxCalltime)) return;
+      }
+
+      synchronized(fNotFull) {
+         fWaitingProducers.incrementAndGet();
+         try {
+            while (!tryOffer(c, arg, maxCalltime)) {
+               try {
+                  fNotFull.wait();
+               } catch (InterruptedException ex) {
+                  interrupted = true;
+               }
+            }
+         } finally {
+            fWaitingProducers.decrementAndGet();
+         }
+      }
+      signalConsumer();
+
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Takes the oldest request out of the ring, waiting if it is empty.
+    * @param into - CallbackRequest - Request the callback is copied into.
+    * @return into
+    */
+   CallbackRequest take(CallbackRequest into) throws InterruptedException {
+      for (int i=0; i<SPINS; i++) {
+         if (poll(into)) return into;
+      }
+
+      synchronized(fNotEmpty) {
+         fWaitingConsumers.incrementAndGet();
+         try {
+            while (!tryPoll(into)) {
+               fNotEmpty.wait();
+            }
+         } finally {
+            fWaitingConsumers.decrementAndGet();
+         }
+      }
+      signalProducer();
+
+      // A producer only wakes one consumer; pass the wake up on if there
+      // is still work left for the others.
+      if (size() > 0) {
+         signalConsumer();
+      }
+      return into;
+   }
+}
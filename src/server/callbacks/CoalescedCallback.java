@@ -0,0 +1,113 @@
+/*
+ * CoalescedCallback.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.callbacks;
+
+/**
+ * A pending "latest wins" callback. Until it starts running, newer
+ * submissions for the same key replace its callback and argument instead
+ * of queueing another one, so a burst of submissions runs once, with the
+ * last one.
+ */
+final class CoalescedCallback implements Callback, Runnable {
+   private final Object fKey;
+   private final CallbackPriority fPriority;
+   private final AsyncCallback fOwner;
+   private Callback fToCall;
+   private Object fArg;
+   private boolean fStarted;
+
+   CoalescedCallback(Object key, CallbackPriority priority, AsyncCallback owner,
+                     Callback c, Object arg) {
+      fKey = key;
+      fPriority = priority;
+      fOwner = owner;
+      fToCall = c;
+      fArg = arg;
+   }
+
+   /**
+    * Replaces the callback with a newer one.
+    * @return false if the callback already started and the newer one has
+    *    to be queued on its own.
+    */
+   synchronized boolean replace(Callback c, Object arg) {
+      if (fStarted) return false;
+
+      fToCall = c;
+      fArg = arg;
+      return true;
+   }
+
+   /**
+    * Queues the callback once its debounce window has passed.
+    */
+   public void run() {
+      try {
+         fOwner.doCallback(fPriority, this, null);
+      } catch (CallbackRejectedException ex) {
+         drop();
+         throw ex;
+      }
+   }
+
+   /**
+    * Gives up the callback for good because the queue threw it away. Later
+    * submissions for the key can no longer replace it and are queued anew
+    * instead of being absorbed by a callback that never runs.
+    */
+   void drop() {
+      synchronized(this) {
+         fStarted = true;
+         fToCall = null;
+         fArg = null;
+      }
+      fOwner.coalescedDone(fKey, this);
+   }
+
+   /**
+    * Tells the coalesced callback, if it is one, that an overflow policy
+    * threw it away.
+    * @param c - Callback - Callback that was dropped, may be null.
+    */
+   static void dropped(Callback c) {
+      if (c instanceof CoalescedCallback) {
+         ((CoalescedCallback)c).drop();
+      }
+   }
+
+   public void executeCallback(Notifier n, Object arg) {
+      Callback c;
+      Object a;
+
+      synchronized(this) {
+         fStarted = true;
+         c = fToCall;
+         a = fArg;
+         fToCall = null;
+         fArg = null;
+      }
+      fOwner.coalescedDone(fKey, this);
+
+      c.executeCallback(n, a);
+   }
+}
@@ -26,22 +26,46 @@ public class Notifier extends Thread {
    private long fStartedCallback;
    private AsyncCallback fList;
    private CallbackRequest fToCallback;
-   private boolean fIsCallbackActive = false;
+   private CallbackRequest fSlot = new CallbackRequest(null, null, 0);
+   private volatile boolean fIsCallbackActive = false;
+   private boolean fOneShot = false;
+   private volatile Thread fRunner;
+   private long fMaxCalltime;
+   private long fArmedDeadline = Long.MAX_VALUE;
+   private int fArmed;
+   private TimingWheel.Timeout fTimeout;
+   private final Object fExpiryLock = new Object();
 
    public Notifier(int id, int pri, AsyncCallback list) {
       super("Notifier "+pri+":"+id);
       setPriority(pri);
       fList = list;
+      fRunner = this;
 
       start();
    }
 
+   /**
+    * Constructor for a notifier that is never started as a thread of its
+    * own. The PER_REQUEST mode runs each request on an executor thread (a
+    * virtual thread where available) with a spare notifier of this kind,
+    * see runOnce(), and timeouts interrupt whichever thread is running it.
+    * @param id - long - Sequence number used in the notifier's name.
+    * @param list - AsyncCallback - Owner of the notifier.
+    */
+   Notifier(long id, AsyncCallback list) {
+      super("Notifier v:"+id);
+      fList = list;
+      fOneShot = true;
+   }
+
    public void run() {
+      if (fOneShot) return;
+
       while (!fStopNow) {
          try {
             fList.waitForCallback(this);
-            resetCallbackTime();
-            fIsCallbackActive = true;
+            beginCallback(fToCallback.getMaxCalltime());
             fToCallback.callback(this);
          } catch (InterruptedException ex) {
             if (fStopNow) return;
@@ -51,7 +75,113 @@ public class Notifier extends Thread {
             ex.printStackTrace(System.err);
          } finally {
             fIsCallbackActive = false;
+            if (fToCallback == fSlot) fSlot.clear();
+         }
+      }
+   }
+
+   /**
+    * Runs one request on the current thread. The timeout armed for it is
+    * cancelled once it is done, so the timing wheel lets go of the request
+    * right away, and the notifier can be used for the next request.
+    * @param req - CallbackRequest - Request to run.
+    */
+   void runOnce(CallbackRequest req) {
+      fToCallback = req;
+      fRunner = Thread.currentThread();
+      fList.callbackStarted(this);
+      try {
+         if (fStopNow) return;
+         beginCallback(req.getMaxCalltime());
+         req.callback(this);
+      } catch (Exception ex) {
+         System.err.println("Unexpected callback error: " + ex);
+         ex.printStackTrace(System.err);
+      } finally {
+         synchronized(fExpiryLock) {
+            fIsCallbackActive = false;
+            fRunner = null;
+            disarm();
          }
+         fToCallback = null;
+         fList.callbackFinished(this);
+         // A timeout that hit just as the callback returned must not carry
+         // over to the executor thread's next task.
+         Thread.interrupted();
+      }
+   }
+
+   /**
+    * Marks the start of a callback and makes sure the timing wheel will
+    * check on it once its maximum call time is up. Timeouts are armed lazily:
+    * a new one is only scheduled if this callback is due before the one
+    * already armed, and an expiring timeout re-arms itself for whatever
+    * callback is running by then. Short callbacks therefore do not cost a
+    * timeout each.
+    * @param maxCalltime - long - Maximum call time, 0 for the AsyncCallback's.
+    */
+   void beginCallback(long maxCalltime) {
+      if (maxCalltime <= 0) {
+         maxCalltime = fList.getMaxCalltime();
+      }
+
+      synchronized(fExpiryLock) {
+         fMaxCalltime = maxCalltime;
+         resetCallbackTime();
+         fIsCallbackActive = true;
+
+         long deadline = fStartedCallback + maxCalltime;
+         if (deadline < fArmedDeadline) {
+            arm(deadline, maxCalltime);
+         }
+      }
+   }
+
+   private void arm(long deadline, long delay) {
+      final int armed = ++fArmed;
+
+      fArmedDeadline = deadline;
+      fTimeout = fList.getTimer().schedule(new Runnable() {
+         public void run() {
+            expire(armed);
+         }
+      }, delay);
+   }
+
+   /**
+    * Cancels the armed timeout. Must hold fExpiryLock.
+    */
+   private void disarm() {
+      if (fTimeout != null) {
+         fTimeout.cancel();
+         fTimeout = null;
+      }
+      // Should the timeout be expiring right now, it is no longer in charge.
+      fArmed++;
+      fArmedDeadline = Long.MAX_VALUE;
+   }
+
+   /**
+    * Called on the timing wheel thread when an armed timeout expires.
+    * @param armed - int - Which arm() scheduled the timeout.
+    */
+   private void expire(int armed) {
+      synchronized(fExpiryLock) {
+         long curr = System.currentTimeMillis();
+
+         // Another timeout has been armed since this one; it is in charge.
+         if (armed != fArmed) return;
+
+         fArmedDeadline = Long.MAX_VALUE;
+         if (!fIsCallbackActive) return;
+
+         long left = fMaxCalltime - getElapsedCallbackTime(curr);
+         if (left <= 0) {
+            interruptCallback();
+            // Keep interrupting while the callback ignores us.
+            left = fMaxCalltime;
+         }
+         arm(curr + left, left);
       }
    }
 
@@ -63,13 +193,28 @@ public class Notifier extends Thread {
       fToCallback = c;
    }
 
+   /**
+    * Gets the request owned by this notifier. The ring dispatch mode copies
+    * each callback into it so that taking a callback does not allocate.
+    */
+   CallbackRequest getSlot() {
+      return fSlot;
+   }
+
+   /**
+    * Gets whether this notifier works for the given AsyncCallback.
+    */
+   boolean belongsTo(AsyncCallback list) {
+      return fList == list;
+   }
+
    /**
     * Sets the stop flag which will cause the run() method to terminate after
     * completing current activity
     */
    public void timeToStop() {
       fStopNow = true;
-      interrupt();
+      interruptCallback();
    }
 
    /**
@@ -105,13 +250,15 @@ public class Notifier extends Thread {
       fStartedCallback = System.currentTimeMillis();
    }
 
-   final void checkForTimeout(long curr, long max) {
-      if (!fIsCallbackActive) {
-         return;
-      }
+   /**
+    * Interrupts the thread running the callback, which is the notifier itself
+    * unless it was handed to an executor.
+    */
+   private void interruptCallback() {
+      Thread t = fRunner;
 
-      if (getElapsedCallbackTime(curr) > max) {
-         interrupt();
+      if (t != null) {
+         t.interrupt();
       }
    }
 }
@@ -0,0 +1,181 @@
+/*
+ * PriorityCallbackQueue.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server.callbacks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The queue behind the ring dispatch mode. Every priority class has a ring
+ * of its own for plain callbacks, bounded by the class's capacity and
+ * overflow policy, and a queue of lanes that have work in that class.
+ * Notifiers always serve the highest class that has something, alternating
+ * between its ring and its lanes.
+ *
+ * The lane queues are not bounded here: a lane is in them at most once, and
+ * the requests inside a lane are bounded by the lane itself.
+ */
+final class PriorityCallbackQueue {
+   private static final int SPINS = 64;
+
+   private final CallbackRing[] fRings;
+   private final OverflowPolicy[] fPolicies;
+   private final Queue<CallbackLane>[] fLanes;
+   private final AtomicInteger fTurn = new AtomicInteger();
+
+   private final Object fNotEmpty = new Object();
+   private final AtomicInteger fWaitingConsumers = new AtomicInteger();
+
+   @SuppressWarnings("unchecked")
+   PriorityCallbackQueue(int ringSize) {
+      int classes = CallbackPriority.values().length;
+
+      fRings = new CallbackRing[classes];
+      fPolicies = new OverflowPolicy[classes];
+      fLanes = new Queue[classes];
+      for (int i=0; i<classes; i++) {
+         fRings[i] = new CallbackRing(ringSize);
+         fPolicies[i] = OverflowPolicy.BLOCK;
+         fLanes[i] = new ConcurrentLinkedQueue<CallbackLane>();
+      }
+   }
+
+   /**
+    * Replaces the ring of a class. Only safe before the notifiers start.
+    */
+   void setOverflowPolicy(CallbackPriority p, int capacity, OverflowPolicy policy) {
+      if (fRings[p.ordinal()].size() > 0) {
+         throw new IllegalStateException("Callbacks already queued for " + p);
+      }
+
+      fRings[p.ordinal()] = new CallbackRing(capacity);
+      fPolicies[p.ordinal()] = policy;
+   }
+
+   /**
+    * Puts a plain callback into the ring of its class, applying the class's
+    * overflow policy if the ring is full.
+    * @param mayWait - boolean - false if the caller must not wait for room.
+    * @return false if the ring is full and the caller may not wait.
+    * @throws CallbackRejectedException if the class rejects overflow.
+    */
+   boolean put(CallbackPriority p, Callback c, Object arg, long maxCalltime,
+               boolean mayWait) {
+      CallbackRing ring = fRings[p.ordinal()];
+
+      while (!ring.offer(c, arg, maxCalltime)) {
+         switch (fPolicies[p.ordinal()]) {
+         case REJECT:
+            throw new CallbackRejectedException(p);
+         case DROP_OLDEST:
+            CoalescedCallback.dropped(ring.drop());
+            break;
+         default:
+            if (!mayWait) return false;
+            ring.put(c, arg, maxCalltime);
+            signalConsumer();
+            return true;
+         }
+      }
+
+      signalConsumer();
+      return true;
+   }
+
+   /**
+    * Queues a lane that has work waiting. Never fails.
+    */
+   void putLane(CallbackPriority p, CallbackLane lane) {
+      fLanes[p.ordinal()].add(lane);
+      signalConsumer();
+   }
+
+   /**
+    * Takes the next callback, highest class first, waiting if there is none.
+    * @param into - CallbackRequest - Request the callback is copied into.
+    * @return into
+    */
+   CallbackRequest take(CallbackRequest into) throws InterruptedException {
+      for (int i=0; i<SPINS; i++) {
+         if (poll(into)) return into;
+      }
+
+      synchronized(fNotEmpty) {
+         fWaitingConsumers.incrementAndGet();
+         try {
+            while (!poll(into)) {
+               fNotEmpty.wait();
+            }
+         } finally {
+            fWaitingConsumers.decrementAndGet();
+         }
+      }
+
+      if (size() > 0) {
+         signalConsumer();
+      }
+      return into;
+   }
+
+   private boolean poll(CallbackRequest into) {
+      boolean lanesFirst = (fTurn.getAndIncrement() & 1) == 0;
+
+      for (int i=0; i<fRings.length; i++) {
+         if (lanesFirst && pollLane(i, into)) return true;
+         if (fRings[i].poll(into)) return true;
+         if (!lanesFirst && pollLane(i, into)) return true;
+      }
+      return false;
+   }
+
+   private boolean pollLane(int p, CallbackRequest into) {
+      CallbackLane lane = fLanes[p].poll();
+
+      if (lane == null) return false;
+
+      into.set(lane, null, 0);
+      return true;
+   }
+
+   /**
+    * Number of callbacks and lanes waiting. Only an estimate while other
+    * threads are putting or taking.
+    */
+   int size() {
+      int size = 0;
+
+      for (int i=0; i<fRings.length; i++) {
+         size += fRings[i].size();
+         if (!fLanes[i].isEmpty()) size++;
+      }
+      return size;
+   }
+
+   private void signalConsumer() {
+      if (fWaitingConsumers.get() > 0) {
+         synchronized(fNotEmpty) {
+            fNotEmpty.notify();
+         }
+      }
+   }
+}
@@ -0,0 +1,267 @@
+/*
+ * TimingWheel.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+package server.callbacks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel. Timeouts are hashed by their deadline tick into a
+ * fixed number of buckets, so scheduling and cancelling are O(1) no matter
+ * how many timeouts are outstanding. A single daemon thread sleeps until the
+ * next bucket that holds something and expires whatever is due in it; when
+ * nothing is scheduled the thread waits without ticking at all.
+ *
+ * Expired tasks run on the wheel thread and must be short. Anything that
+ * blocks should hand itself to an AsyncCallback, see
+ * AsyncCallback.schedule().
+ */
+public class TimingWheel extends Thread {
+   private final long fTickNanos;
+   private final Timeout[] fBuckets;
+   private final int fMask;
+   private final long fStart = System.nanoTime();
+
+   private final Queue<Timeout> fAdded = new ConcurrentLinkedQueue<Timeout>();
+   private final Queue<Timeout> fCancelled = new ConcurrentLinkedQueue<Timeout>();
+   private final Object fLock = new Object();
+   private volatile long fWakeTick = Long.MIN_VALUE;
+   private volatile boolean fStopNow;
+
+   // Only touched by the wheel thread
+   private long fTick;
+   private int fCount;
+
+   /**
+    * Constructor
+    * @param name - String - Name of the wheel thread.
+    * @param tickMillis - long - Granularity of the wheel.
+    * @param ticksPerWheel - int - Number of buckets, rounded up to a power of two.
+    */
+   public TimingWheel(String name, long tickMillis, int ticksPerWheel) {
+      super(name);
+      if (tickMillis <= 0) {
+         throw new IllegalArgumentException("Invalid tick: " + tickMillis);
+      }
+      if (ticksPerWheel < 2) {
+         throw new IllegalArgumentException("Invalid wheel size: " + ticksPerWheel);
+      }
+
+      int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+      fTickNanos = tickMillis * 1000000L;
+      fBuckets = new Timeout[size];
+      fMask = size - 1;
+
+      setDaemon(true);
+      start();
+   }
+
+   /**
+    * Schedules a task to run once the delay has passed.
+    * @param task - Runnable - Task run on the wheel thread.
+    * @param delayMillis - long - Delay before the task runs.
+    * @return Timeout that can be used to cancel the task.
+    */
+   public Timeout schedule(Runnable task, long delayMillis) {
+      long deadline = System.nanoTime() - fStart + Math.max(0, delayMillis) * 1000000L;
+      Timeout t = new Timeout(task, (deadline + fTickNanos - 1) / fTickNanos);
+
+      fAdded.add(t);
+      if (t.fDeadlineTick < fWakeTick) {
+         synchronized(fLock) {
+            fLock.notify();
+         }
+      }
+      return t;
+   }
+
+   /**
+    * Stops the wheel thread. Timeouts that have not expired yet never will.
+    */
+   public void timeToStop() {
+      fStopNow = true;
+      synchronized(fLock) {
+         fLock.notify();
+      }
+   }
+
+   public void run() {
+      while (!fStopNow) {
+         try {
+            waitForTick(nextBusyTick());
+         } catch (InterruptedException ex) {
+            if (fStopNow) return;
+         }
+
+         long now = currentTick();
+         transferAdded();
+         removeCancelled();
+
+         // Each bucket only needs one visit no matter how long we slept.
+         long last = Math.min(now, fTick + fBuckets.length - 1);
+         for (; fTick <= last; fTick++) {
+            expire(fTick & fMask, now);
+         }
+         fTick = Math.max(fTick, now + 1);
+      }
+   }
+
+   private long currentTick() {
+      return (System.nanoTime() - fStart) / fTickNanos;
+   }
+
+   /**
+    * Finds the next tick whose bucket holds a timeout, or Long.MAX_VALUE if
+    * the wheel is empty.
+    */
+   private long nextBusyTick() {
+      if (fCount == 0) return Long.MAX_VALUE;
+
+      for (int i=0; i<fBuckets.length; i++) {
+         if (fBuckets[(int)((fTick + i) & fMask)] != null) {
+            return fTick + i;
+         }
+      }
+      return Long.MAX_VALUE;
+   }
+
+   private void waitForTick(long tick) throws InterruptedException {
+      synchronized(fLock) {
+         fWakeTick = tick;
+         try {
+            // Anything added after fWakeTick was published notifies us, so
+            // only what came in before needs checking here.
+            if (!fAdded.isEmpty() || fStopNow) return;
+
+            if (tick == Long.MAX_VALUE) {
+               fLock.wait();
+            } else {
+               long nanos = tick * fTickNanos - (System.nanoTime() - fStart);
+               if (nanos > 0) {
+                  fLock.wait(nanos / 1000000L, (int)(nanos % 1000000L));
+               }
+            }
+         } finally {
+            fWakeTick = Long.MIN_VALUE;
+         }
+      }
+   }
+
+   private void transferAdded() {
+      Timeout t;
+
+      while ((t = fAdded.poll()) != null) {
+         if (t.fState.get() != Timeout.WAITING) continue;
+
+         int idx = (int)(Math.max(t.fDeadlineTick, fTick) & fMask);
+         t.fBucket = idx;
+         t.fNext = fBuckets[idx];
+         if (t.fNext != null) t.fNext.fPrev = t;
+         fBuckets[idx] = t;
+         fCount++;
+      }
+   }
+
+   private void removeCancelled() {
+      Timeout t;
+
+      while ((t = fCancelled.poll()) != null) {
+         if (t.fBucket >= 0) unlink(t);
+      }
+   }
+
+   private void unlink(Timeout t) {
+      if (t.fPrev != null) {
+         t.fPrev.fNext = t.fNext;
+      } else {
+         fBuckets[t.fBucket] = t.fNext;
+      }
+      if (t.fNext != null) t.fNext.fPrev = t.fPrev;
+
+      t.fPrev = t.fNext = null;
+      t.fBucket = -1;
+      fCount--;
+   }
+
+   private void expire(long bucket, long now) {
+      Timeout t = fBuckets[(int)bucket];
+
+      while (t != null) {
+         Timeout next = t.fNext;
+
+         if (t.fDeadlineTick <= now) {
+            unlink(t);
+            if (t.fState.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+               try {
+                  t.fTask.run();
+               } catch (Exception ex) {
+                  System.err.println("Unexpected timeout error: " + ex);
+                  ex.printStackTrace(System.err);
+               }
+            }
+         }
+         t = next;
+      }
+   }
+
+   /**
+    * Handle of a scheduled task.
+    */
+   public class Timeout {
+      static final int WAITING = 0;
+      static final int CANCELLED = 1;
+      static final int EXPIRED = 2;
+
+      // Dropped on cancel, so a cancelled timeout that still sits in its
+      // bucket does not keep the task alive.
+      private Runnable fTask;
+      private final long fDeadlineTick;
+      private final AtomicInteger fState = new AtomicInteger(WAITING);
+
+      // Only touched by the wheel thread
+      private Timeout fPrev;
+      private Timeout fNext;
+      private int fBucket = -1;
+
+      Timeout(Runnable task, long deadlineTick) {
+         fTask = task;
+         fDeadlineTick = deadlineTick;
+      }
+
+      /**
+       * Cancels the task.
+       * @return false if the task already ran or was cancelled before.
+       */
+      public boolean cancel() {
+         if (!fState.compareAndSet(WAITING, CANCELLED)) return false;
+
+         fTask = null;
+         fCancelled.add(this);
+         return true;
+      }
+
+      public boolean isExpired() {
+         return fState.get() == EXPIRED;
+      }
+   }
+}
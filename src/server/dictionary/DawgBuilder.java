@@ -0,0 +1,271 @@
+/*
+ * DawgBuilder.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.dictionary;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Compiles a word list into the file format of Lexicon. The words are
+ * sorted and fed into a trie that merges every finished branch with an
+ * equal one it has seen before, so the graph is minimal when the last word
+ * is in and the whole trie never has to be held at once.
+ * 
+ * Can be run on its own to compile a dictionary ahead of time:
+ * java server.dictionary.DawgBuilder words.txt words.txt.dawg
+ * @author Chris Barton
+ */
+public class DawgBuilder {
+	private Node root = new Node();
+	private HashMap<Node, Node> register = new HashMap<Node, Node>();
+	private String previous = "";
+	private int words = 0;
+	
+	/**
+	 * A node of the graph while it is built. Once a node is registered it
+	 * never changes again, so it can be hashed by its contents.
+	 */
+	private static class Node {
+		char [] letters = new char[0];
+		Node [] children = new Node[0];
+		boolean end;
+		int index;
+		
+		boolean hasChildren(){
+			return children.length > 0;
+		}
+		
+		Node lastChild(){
+			return children[children.length - 1];
+		}
+		
+		void add(char letter, Node child){
+			letters = Arrays.copyOf(letters, letters.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			letters[letters.length - 1] = letter;
+			children[children.length - 1] = child;
+		}
+		
+		public boolean equals(Object o){
+			if ( !(o instanceof Node) )
+				return false;
+			
+			Node n = (Node)o;
+			if ( end != n.end || !Arrays.equals(letters, n.letters) )
+				return false;
+			for ( int i=0; i<children.length; i++ ){
+				if ( children[i] != n.children[i] )
+					return false;
+			}
+			return true;
+		}
+		
+		public int hashCode(){
+			int hash = end ? 1 : 0;
+			
+			for ( int i=0; i<children.length; i++ )
+				hash = 31 * (31 * hash + letters[i]) + System.identityHashCode(children[i]);
+			return hash;
+		}
+	}
+	
+	/**
+	 * Compiles a word list, one word per line, into a dictionary file. The
+	 * file is written next to its final place and moved there when done.
+	 * Words with characters beyond Latin-1 are left out.
+	 * @param words - File - Word list, UTF-8.
+	 * @param dawg - File - Dictionary file to write.
+	 * @throws IOException
+	 */
+	public static void compile(File words, File dawg) throws IOException{
+		ArrayList<String> list = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(words), "UTF-8"));
+		
+		try {
+			String line;
+			while ( (line = in.readLine()) != null ){
+				String word = lowerCase(line.trim());
+				if ( word != null )
+					list.add(word);
+			}
+		} finally {
+			in.close();
+		}
+		
+		DawgBuilder builder = new DawgBuilder();
+		Collections.sort(list);
+		for ( String word : list )
+			builder.add(word);
+		
+		File tmp = new File(dawg.getPath() + ".tmp");
+		builder.write(tmp);
+		if ( !tmp.renameTo(dawg) && !(dawg.delete() && tmp.renameTo(dawg)) )
+			throw new IOException("Cannot move " + tmp + " to " + dawg);
+	}
+	
+	/**
+	 * Lower cases a word the way Lexicon looks it up.
+	 * @return the word, null if it is empty or has characters beyond Latin-1.
+	 */
+	private static String lowerCase(String word){
+		if ( word.length() == 0 )
+			return null;
+		
+		char [] chars = new char[word.length()];
+		for ( int i=0; i<chars.length; i++ ){
+			chars[i] = Character.toLowerCase(word.charAt(i));
+			if ( chars[i] == 0 || chars[i] > Lexicon.LETTER_MASK )
+				return null;
+		}
+		return new String(chars);
+	}
+	
+	/**
+	 * Adds a word. Words have to come in sorted order; repeats are ignored.
+	 * @param word - String - Word in lower case.
+	 */
+	public void add(String word){
+		if ( word.compareTo(previous) < 0 )
+			throw new IllegalArgumentException("Words out of order: " + previous + ", " + word);
+		if ( word.equals(previous) || word.length() == 0 )
+			return;
+		
+		int common = 0;
+		int max = Math.min(word.length(), previous.length());
+		while ( common < max && word.charAt(common) == previous.charAt(common) )
+			common++;
+		
+		Node node = root;
+		for ( int i=0; i<common; i++ )
+			node = node.lastChild();
+		
+		// The branch of the previous word below the shared prefix is done.
+		if ( node.hasChildren() )
+			replaceOrRegister(node);
+		
+		for ( int i=common; i<word.length(); i++ ){
+			Node child = new Node();
+			node.add(word.charAt(i), child);
+			node = child;
+		}
+		node.end = true;
+		previous = word;
+		words++;
+	}
+	
+	/**
+	 * Merges the last branch of a node, bottom up, with equal ones that are
+	 * already registered.
+	 */
+	private void replaceOrRegister(Node node){
+		Node child = node.lastChild();
+		
+		if ( child.hasChildren() )
+			replaceOrRegister(child);
+		
+		Node same = register.get(child);
+		if ( same != null )
+			node.children[node.children.length - 1] = same;
+		else
+			register.put(child, child);
+	}
+	
+	/**
+	 * Finishes the graph and writes it out.
+	 * @param file - File - Dictionary file to write.
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException{
+		if ( root.hasChildren() )
+			replaceOrRegister(root);
+		
+		// Lay the nodes out, parents before their children.
+		List<Node> nodes = new ArrayList<Node>();
+		IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+		int count = 1;
+		
+		nodes.add(root);
+		seen.put(root, Boolean.TRUE);
+		for ( int i=0; i<nodes.size(); i++ ){
+			Node node = nodes.get(i);
+			
+			if ( !node.hasChildren() )
+				continue;
+			node.index = count;
+			count += node.children.length;
+			for ( Node child : node.children ){
+				if ( seen.put(child, Boolean.TRUE) == null )
+					nodes.add(child);
+			}
+		}
+		if ( count > Lexicon.MAX_EDGES )
+			throw new IOException("Dictionary too big: " + count + " edges");
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(Lexicon.MAGIC);
+			out.writeInt(Lexicon.VERSION);
+			out.writeInt(count);
+			out.writeInt(root.index);
+			out.writeInt(words);
+			
+			out.writeInt(0);
+			for ( Node node : nodes ){
+				for ( int i=0; i<node.children.length; i++ ){
+					Node child = node.children[i];
+					int edge = node.letters[i] | (child.index << Lexicon.NODE_SHIFT);
+					
+					if ( child.end )
+						edge |= Lexicon.END_OF_WORD;
+					if ( i == node.children.length - 1 )
+						edge |= Lexicon.LAST_EDGE;
+					out.writeInt(edge);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	public static void main(String [] args) throws IOException{
+		if ( args.length != 2 ){
+			System.err.println("Usage: DawgBuilder <word list> <dictionary file>");
+			System.exit(1);
+		}
+		
+		compile(new File(args[0]), new File(args[1]));
+		System.out.println("Compiled " + Lexicon.map(new File(args[1])).size() + " words");
+	}
+}
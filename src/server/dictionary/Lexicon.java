@@ -0,0 +1,193 @@
+/*
+ * Lexicon.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.dictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The word list as a compact DAWG (a trie with its common suffixes merged)
+ * that is mapped straight from its file. The graph lives outside the heap
+ * and is paged in by the OS as it is used, so opening a dictionary costs
+ * no parsing and next to no heap whatever its size. Lookups only read the
+ * mapping, so any number of threads can check words at once without locks.
+ * 
+ * The file is a header of five ints (magic, version, number of edges, the
+ * root node and the number of words) followed by the edges. A node is the
+ * index of its first edge, and its edges follow each other in letter order
+ * up to the one marked as the last. Each edge is an int:
+ * 
+ *    bits 0-7    letter
+ *    bit 8       a word ends here
+ *    bit 9       last edge of its node
+ *    bits 10-31  node the edge leads to, 0 if none
+ * 
+ * Edge 0 is never used, so 0 can stand for "no node". Words are stored in
+ * lower case and may only hold Latin-1 characters.
+ * @author Chris Barton
+ */
+public class Lexicon {
+	static final int MAGIC = 0x574d4447;	// "WMDG"
+	static final int VERSION = 1;
+	static final int HEADER_INTS = 5;
+	
+	static final int LETTER_MASK = 0xff;
+	static final int END_OF_WORD = 1 << 8;
+	static final int LAST_EDGE = 1 << 9;
+	static final int NODE_SHIFT = 10;
+	static final int MAX_EDGES = 1 << (32 - NODE_SHIFT);
+	
+	/** Extension of compiled dictionaries. */
+	public static final String EXTENSION = ".dawg";
+	/** Shortest word that scores. */
+	public static final int MIN_LENGTH = 3;
+	
+	// Points by word length, longer words get the last entry.
+	private static final int [] POINTS = { 0, 0, 0, 1, 1, 2, 3, 5, 11 };
+	
+	private final IntBuffer edges;
+	private final int root;
+	private final int words;
+	
+	private Lexicon(IntBuffer edges, int root, int words){
+		this.edges = edges;
+		this.root = root;
+		this.words = words;
+	}
+	
+	/**
+	 * Opens a dictionary. A plain word list, one word per line, is compiled
+	 * into a file of the same name plus EXTENSION first, unless that file is
+	 * already there and newer, and the compiled file is mapped.
+	 * @param file - File - Compiled dictionary or word list.
+	 * @return Lexicon
+	 * @throws IOException if the file cannot be read or is not a dictionary.
+	 */
+	public static Lexicon open(File file) throws IOException{
+		if ( !file.getName().endsWith(EXTENSION) ){
+			File compiled = new File(file.getPath() + EXTENSION);
+			
+			if ( !compiled.exists() || compiled.lastModified() < file.lastModified() )
+				DawgBuilder.compile(file, compiled);
+			file = compiled;
+		}
+		return map(file);
+	}
+	
+	/**
+	 * Maps a compiled dictionary.
+	 * @param file - File - Compiled dictionary.
+	 * @return Lexicon
+	 * @throws IOException if the file cannot be read or is not a dictionary.
+	 */
+	public static Lexicon map(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		
+		// The mapping stays valid after the file is closed.
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			IntBuffer ints = buffer.asIntBuffer();
+			
+			if ( ints.limit() < HEADER_INTS || ints.get(0) != MAGIC )
+				throw new IOException("Not a WordMole dictionary: " + file);
+			if ( ints.get(1) != VERSION )
+				throw new IOException("Unknown dictionary version " + ints.get(1) + ": " + file);
+			
+			int count = ints.get(2);
+			int root = ints.get(3);
+			if ( count < 1 || ints.limit() - HEADER_INTS != count || root < 0 || root >= count )
+				throw new IOException("Damaged dictionary: " + file);
+			
+			ints.position(HEADER_INTS);
+			return new Lexicon(ints.slice(), root, ints.get(4));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Number of words in the dictionary.
+	 * @return int
+	 */
+	public int size(){
+		return words;
+	}
+	
+	/**
+	 * Tells whether a word is in the dictionary, ignoring case.
+	 * @param word - CharSequence - Word to look up.
+	 * @return boolean
+	 */
+	public boolean contains(CharSequence word){
+		int node = root;
+		int last = word.length() - 1;
+		
+		for ( int i=0; i<=last && node != 0; i++ ){
+			int edge = edge(node, Character.toLowerCase(word.charAt(i)));
+			
+			if ( edge == 0 )
+				return false;
+			if ( i == last )
+				return (edge & END_OF_WORD) != 0;
+			node = edge >>> NODE_SHIFT;
+		}
+		return false;
+	}
+	
+	/**
+	 * Scores a word: nothing if it is too short or not in the dictionary,
+	 * more the longer it is otherwise.
+	 * @param word - CharSequence - Word to score.
+	 * @return int
+	 */
+	public int score(CharSequence word){
+		int length = word.length();
+		
+		if ( length < MIN_LENGTH || !contains(word) )
+			return 0;
+		return POINTS[Math.min(length, POINTS.length - 1)];
+	}
+	
+	/**
+	 * Finds the edge of a node for a letter.
+	 * @return the edge, 0 if there is none.
+	 */
+	private int edge(int node, char letter){
+		if ( letter == 0 || letter > LETTER_MASK )
+			return 0;
+		
+		for ( int i=node; ; i++ ){
+			int edge = edges.get(i);
+			int l = edge & LETTER_MASK;
+			
+			if ( l == letter )
+				return edge;
+			if ( l > letter || (edge & LAST_EDGE) != 0 )
+				return 0;
+		}
+	}
+}
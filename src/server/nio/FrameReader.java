@@ -0,0 +1,102 @@
+/*
+ * FrameReader.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import game.multiplayer.containers.Client;
+import game.states.PlayerState;
+
+/**
+ * Reads the body of one frame of the Protocol.
+ * @author Chris Barton
+ */
+public class FrameReader {
+	private static final PlayerState [] STATES = PlayerState.values();
+	
+	private final ByteBuffer body;
+	
+	/**
+	 * Constructor
+	 * @param body - ByteBuffer - The frame after its opcode.
+	 */
+	public FrameReader(ByteBuffer body){
+		this.body = body;
+	}
+	
+	private void need(int bytes) throws ProtocolException{
+		if ( bytes < 0 || body.remaining() < bytes )
+			throw new ProtocolException("Frame too short");
+	}
+	
+	public byte getByte() throws ProtocolException{
+		need(1);
+		return body.get();
+	}
+	
+	public boolean getBoolean() throws ProtocolException{
+		return getByte() != 0;
+	}
+	
+	public int getInt() throws ProtocolException{
+		need(4);
+		return body.getInt();
+	}
+	
+	public long getLong() throws ProtocolException{
+		need(8);
+		return body.getLong();
+	}
+	
+	public String getString() throws ProtocolException{
+		int length = getInt();
+		
+		need(length);
+		String s = new String(body.array(), body.arrayOffset() + body.position(), length, FrameWriter.UTF8);
+		body.position(body.position() + length);
+		return s;
+	}
+	
+	public Client getClient() throws ProtocolException{
+		Client client = new Client(getString());
+		int state = getByte();
+		
+		if ( state >= STATES.length )
+			throw new ProtocolException("Unknown player state " + state);
+		client.state = (state >= 0) ? STATES[state] : null;
+		return client;
+	}
+	
+	public Client [] getClients() throws ProtocolException{
+		int count = getInt();
+		
+		// Each Client takes at least five bytes.
+		if ( count < 0 || count > body.remaining() / 5 )
+			throw new ProtocolException("Frame too short");
+		Client [] clients = new Client[count];
+		for ( int i=0; i<count; i++ )
+			clients[i] = getClient();
+		return clients;
+	}
+}
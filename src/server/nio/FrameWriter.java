@@ -0,0 +1,117 @@
+/*
+ * FrameWriter.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.rmi.MarshalException;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * Builds one frame of the Protocol.
+ * @author Chris Barton
+ */
+public class FrameWriter {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ByteBuffer buffer = ByteBuffer.allocate(64);
+	
+	/**
+	 * Constructor
+	 * @param op - byte - Opcode of the frame.
+	 */
+	public FrameWriter(byte op){
+		buffer.putInt(0);
+		buffer.put(op);
+	}
+	
+	private void ensure(int bytes){
+		if ( buffer.remaining() >= bytes )
+			return;
+		
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	}
+	
+	public FrameWriter putByte(int b){
+		ensure(1);
+		buffer.put((byte)b);
+		return this;
+	}
+	
+	public FrameWriter putBoolean(boolean b){
+		return putByte(b ? 1 : 0);
+	}
+	
+	public FrameWriter putInt(int i){
+		ensure(4);
+		buffer.putInt(i);
+		return this;
+	}
+	
+	public FrameWriter putLong(long l){
+		ensure(8);
+		buffer.putLong(l);
+		return this;
+	}
+	
+	public FrameWriter putString(String s){
+		byte [] bytes = s.getBytes(UTF8);
+		
+		ensure(4 + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+		return this;
+	}
+	
+	public FrameWriter putClient(Client client){
+		putString(client.name);
+		return putByte(client.state != null ? client.state.ordinal() : -1);
+	}
+	
+	public FrameWriter putClients(Client [] clients){
+		putInt(clients.length);
+		for ( Client client : clients )
+			putClient(client);
+		return this;
+	}
+	
+	/**
+	 * Fills in the length and hands out the frame, ready to be written.
+	 * @return ByteBuffer
+	 * @throws MarshalException if the frame is bigger than the client
+	 * will read, so it fails like any other push that cannot be sent.
+	 */
+	public ByteBuffer finish() throws MarshalException{
+		int length = buffer.position() - 4;
+		
+		if ( length > Protocol.MAX_FRAME )
+			throw new MarshalException("Frame too big: " + length + " bytes");
+		buffer.putInt(0, length);
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * NioConnection.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Invite;
+import game.multiplayer.game.Scoreboard;
+import game.multiplayer.interfaces.Invitation;
+import game.multiplayer.interfaces.MultiplayerGameFrame;
+import game.multiplayer.interfaces.WordMoleClient;
+
+import server.Heartbeat;
+import server.Liveness;
+import server.RosterChange;
+import server.RosterListener;
+import server.RosterSnapshot;
+import server.SessionRegistry;
+
+/**
+ * One client of the NioEndpoint. To the rest of the server it is just
+ * another WordMoleClient, and the game frames it hands out are just other
+ * MultiplayerGameFrames, but a call to them only encodes a frame and queues
+ * it for the endpoint's selector to write. Nothing blocks on the client,
+ * so a push costs microseconds instead of a round trip. A client whose
+ * queue grows too long is cut off, like an RMI client that times out.
+ * @author Chris Barton
+ */
+public class NioConnection implements WordMoleClient, RosterListener, Heartbeat {
+	private final NioEndpoint endpoint;
+	private final SessionRegistry sessions;
+	private final ConcurrentHashMap<Long, GameFrame> frames = new ConcurrentHashMap<Long, GameFrame>();
+	private final AtomicInteger outboundBytes = new AtomicInteger();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final Object pongLock = new Object();
+	private long pongs = 0;
+	
+	final SocketChannel channel;
+	final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	final AtomicInteger requests = new AtomicInteger();
+	final AtomicBoolean interestQueued = new AtomicBoolean();
+	volatile long lastRead = System.currentTimeMillis();
+	
+	// Only touched by the selector thread
+	ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+	
+	/** Size of the read buffer, it grows for bigger frames. */
+	public static final int INITIAL_BUFFER = 8192;
+	/** Bytes that may wait to be written before the client is cut off. */
+	public static final int MAX_OUTBOUND = 4 << 20;
+	
+	NioConnection(NioEndpoint endpoint, SessionRegistry sessions, SocketChannel channel){
+		this.endpoint = endpoint;
+		this.sessions = sessions;
+		this.channel = channel;
+	}
+	
+	boolean isClosed(){
+		return closed.get();
+	}
+	
+	/**
+	 * Marks the connection closed. From then on pushes fail.
+	 * @return false if it was closed before.
+	 */
+	boolean markClosed(){
+		if ( !closed.compareAndSet(false, true) )
+			return false;
+		
+		// Nobody will answer a ping any more.
+		synchronized ( pongLock ){
+			pongLock.notifyAll();
+		}
+		return true;
+	}
+	
+	/**
+	 * Counts a PING request from the client, the answer to a ping().
+	 */
+	void pong(){
+		synchronized ( pongLock ){
+			pongs++;
+			pongLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Queues a frame for the selector to write.
+	 * @param frame - FrameWriter - Frame to send.
+	 * @throws RemoteException if the connection is closed or too far behind,
+	 * or the frame is too big to send.
+	 */
+	void push(FrameWriter frame) throws RemoteException{
+		push(frame.finish());
+	}
+	
+	/**
+	 * Queues a finished frame for the selector to write.
+	 * @param bytes - ByteBuffer - Frame to send, not shared with anyone else.
+	 * @throws RemoteException if the connection is closed or too far behind.
+	 */
+	void push(ByteBuffer bytes) throws RemoteException{
+		if ( closed.get() )
+			throw new RemoteException("Connection closed");
+		
+		if ( outboundBytes.addAndGet(bytes.remaining()) > MAX_OUTBOUND ){
+			endpoint.close(this);
+			throw new RemoteException("Client is too far behind");
+		}
+		outbound.add(bytes);
+		endpoint.updateInterest(this);
+	}
+	
+	/**
+	 * Counts off bytes the selector wrote.
+	 */
+	void written(int bytes){
+		outboundBytes.addAndGet(-bytes);
+	}
+	
+	/**
+	 * Returns the frame that stands for this client in a game.
+	 * @param game - long - Session id of the game.
+	 * @return GameFrame
+	 */
+	GameFrame frame(long game){
+		GameFrame f = frames.get(game);
+		
+		if ( f == null ){
+			GameFrame created = new GameFrame(game);
+			f = frames.putIfAbsent(game, created);
+			if ( f == null )
+				f = created;
+		}
+		return f;
+	}
+	
+	/**
+	 * Forgets the frame of a game the client left.
+	 */
+	void forgetFrame(long game){
+		frames.remove(game);
+	}
+	
+	private long sessionId(Remote ref) throws RemoteException{
+		long id = sessions.idOf(ref);
+		
+		if ( id < 0 )
+			throw new NoSuchObjectException("Unknown session " + ref);
+		return id;
+	}
+	
+	public void updateClientList(Client [] clients) throws RemoteException{
+		push(new FrameWriter(Protocol.CLIENT_LIST).putClients(clients));
+	}
+	
+	public void rosterSnapshot(RosterSnapshot snapshot) throws RemoteException{
+		push(endpoint.encode(snapshot));
+	}
+	
+	public void rosterDelta(long from, RosterChange [] changes) throws RemoteException{
+		FrameWriter frame = new FrameWriter(Protocol.ROSTER_DELTA).putLong(from).putInt(changes.length);
+		
+		for ( RosterChange change : changes ){
+			frame.putByte(change.getType().ordinal());
+			frame.putClient(change.getClient());
+			frame.putLong(change.getVersion());
+		}
+		push(frame);
+	}
+	
+	public void displayMessage(String text) throws RemoteException{
+		push(new FrameWriter(Protocol.DISPLAY_MESSAGE).putString(text));
+	}
+	
+	public void receiveGame(game.multiplayer.interfaces.Game game) throws RemoteException{
+		long id = sessionId(game);
+		Remote session = sessions.lookup(id);
+		
+		if ( !(session instanceof game.multiplayer.interfaces.Game) )
+			throw new NoSuchObjectException("No game " + id);
+		
+		Client [] players = ((game.multiplayer.interfaces.Game)session).getGame().getPlayers();
+		push(new FrameWriter(Protocol.RECEIVE_GAME).putLong(id).putClients(players));
+	}
+	
+	public void receiveInvite(Invitation invitation) throws RemoteException{
+		long id = sessionId(invitation);
+		Remote session = sessions.lookup(id);
+		
+		if ( !(session instanceof Invitation) )
+			throw new NoSuchObjectException("No invitation " + id);
+		
+		Invite invite = ((Invitation)session).getInvite();
+		push(new FrameWriter(Protocol.RECEIVE_INVITE).putLong(id)
+				.putClient(invite.getHost()).putClients(invite.getInvitees()));
+	}
+	
+	public void receiveInviteDecision(Client client, boolean decision) throws RemoteException{
+		push(new FrameWriter(Protocol.INVITE_DECISION).putClient(client).putBoolean(decision));
+	}
+	
+	public void cancelInvite() throws RemoteException{
+		push(new FrameWriter(Protocol.CANCEL_INVITE));
+	}
+	
+	/**
+	 * Sends a SERVER_PING and waits for the client to answer it with a PING
+	 * request, at most Liveness.PROBE_TIMEOUT. A client that does not
+	 * answer in time is cut off.
+	 */
+	public void ping() throws RemoteException{
+		long deadline = System.currentTimeMillis() + Liveness.PROBE_TIMEOUT;
+		
+		synchronized ( pongLock ){
+			long before = pongs;
+			push(new FrameWriter(Protocol.SERVER_PING));
+			
+			while ( pongs == before ){
+				long left = deadline - System.currentTimeMillis();
+				
+				if ( closed.get() )
+					throw new RemoteException("Connection closed");
+				if ( left <= 0 ){
+					endpoint.close(this);
+					throw new RemoteException("No answer to ping");
+				}
+				try {
+					pongLock.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RemoteException("Interrupted waiting for an answer to ping");
+				}
+			}
+		}
+	}
+	
+	public String toString(){
+		return "NioConnection " + channel.socket().getRemoteSocketAddress();
+	}
+	
+	/**
+	 * What stands for the client in one game.
+	 */
+	class GameFrame implements MultiplayerGameFrame, Scoreboard {
+		private final long game;
+		
+		GameFrame(long game){
+			this.game = game;
+		}
+		
+		public void startGame() throws RemoteException{
+			push(new FrameWriter(Protocol.START_GAME).putLong(game));
+		}
+		
+		public void disconnectPlayer(Client client) throws RemoteException{
+			push(new FrameWriter(Protocol.DISCONNECT_PLAYER).putLong(game).putClient(client));
+		}
+		
+		public void updateScore(Client client, int score) throws RemoteException{
+			push(new FrameWriter(Protocol.UPDATE_SCORE).putLong(game).putClient(client).putInt(score));
+		}
+		
+		public void updateScores(Client [] clients, int [] scores) throws RemoteException{
+			FrameWriter frame = new FrameWriter(Protocol.UPDATE_SCORES).putLong(game).putClients(clients);
+			
+			frame.putInt(scores.length);
+			for ( int score : scores )
+				frame.putInt(score);
+			push(frame);
+		}
+		
+		public void notifyWinner(Client winner) throws RemoteException{
+			push(new FrameWriter(Protocol.NOTIFY_WINNER).putLong(game).putClient(winner));
+		}
+	}
+}
@@ -0,0 +1,456 @@
+/*
+ * NioEndpoint.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.MarshalException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import game.multiplayer.containers.Client;
+import game.multiplayer.containers.Game;
+import game.multiplayer.containers.Invite;
+import game.multiplayer.game.WordGame;
+import game.multiplayer.interfaces.Invitation;
+
+import server.RosterSnapshot;
+import server.SessionRegistry;
+import server.WordMoleServerImpl;
+import server.callbacks.AsyncCallback;
+import server.callbacks.Callback;
+import server.callbacks.CallbackPriority;
+import server.callbacks.Notifier;
+
+/**
+ * A second way in next to RMI: one selector thread serves every client
+ * over plain sockets with the binary Protocol, instead of a thread per
+ * call and Java serialization. Requests are decoded on the selector thread
+ * and run on the request AsyncCallback, on a lane per connection so a
+ * client's requests run in the order it sent them. Everything the server
+ * sends is queued by the NioConnection and written here when the socket
+ * takes it.
+ * 
+ * A client with too many requests running is not read from until some
+ * are done, so it is slowed down by TCP instead of piling up work. Frames
+ * it already sent past the limit wait undecoded in its buffer.
+ * @author Chris Barton
+ */
+public class NioEndpoint extends Thread {
+	private final WordMoleServerImpl server;
+	private final SessionRegistry sessions;
+	private final AsyncCallback requests;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Queue<NioConnection> interestChanges = new ConcurrentLinkedQueue<NioConnection>();
+	private volatile boolean stopNow = false;
+	
+	// The last roster frame, encoded once for every connection
+	private RosterSnapshot rosterSnapshot = null;
+	private ByteBuffer rosterFrame = null;
+	
+	/** Requests of one client that may be running or waiting at once. */
+	public static final int MAX_REQUESTS = 64;
+	/** Most frames written to a socket in one go. */
+	private static final int GATHER = 16;
+	
+	/**
+	 * Constructor, opens the port.
+	 * @param server - WordMoleServerImpl - Server the requests go to.
+	 * @param requests - AsyncCallback - Runs the requests.
+	 * @param port - int - Port to listen on, 0 for any free one.
+	 * @throws IOException if the port cannot be opened.
+	 */
+	public NioEndpoint(WordMoleServerImpl server, AsyncCallback requests, int port) throws IOException{
+		super("WordMole NIO endpoint");
+		this.server = server;
+		this.sessions = server.getSessions();
+		this.requests = requests;
+		
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		setDaemon(true);
+	}
+	
+	/**
+	 * Returns the port the endpoint listens on.
+	 * @return int
+	 */
+	public int getPort(){
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	/**
+	 * Closes the port and every connection.
+	 */
+	public void timeToStop(){
+		stopNow = true;
+		selector.wakeup();
+	}
+	
+	public void run(){
+		try {
+			while ( !stopNow ){
+				selector.select();
+				
+				NioConnection conn;
+				while ( (conn = interestChanges.poll()) != null ){
+					conn.interestQueued.set(false);
+					resume(conn);
+				}
+				
+				for ( Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ){
+					SelectionKey key = it.next();
+					it.remove();
+					
+					if ( !key.isValid() )
+						continue;
+					if ( key.isAcceptable() )
+						accept();
+					else {
+						conn = (NioConnection)key.attachment();
+						if ( key.isReadable() )
+							read(conn);
+						if ( key.isValid() && key.isWritable() )
+							write(conn);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (ClosedSelectorException e) {
+			// Stopped.
+		} finally {
+			shutdown();
+		}
+	}
+	
+	private void shutdown(){
+		for ( SelectionKey key : selector.keys() ){
+			if ( key.attachment() instanceof NioConnection )
+				close((NioConnection)key.attachment());
+		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void accept() throws IOException{
+		SocketChannel channel;
+		
+		while ( (channel = serverChannel.accept()) != null ){
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(selector, SelectionKey.OP_READ, new NioConnection(this, sessions, channel));
+		}
+	}
+	
+	/**
+	 * Asks the selector thread to look at what a connection waits for,
+	 * after it queued something to write or finished a request.
+	 */
+	void updateInterest(NioConnection conn){
+		if ( conn.interestQueued.compareAndSet(false, true) ){
+			interestChanges.add(conn);
+			selector.wakeup();
+		}
+	}
+	
+	private void setInterest(NioConnection conn){
+		SelectionKey key = conn.channel.keyFor(selector);
+		
+		if ( key == null || !key.isValid() )
+			return;
+		
+		int ops = 0;
+		if ( conn.requests.get() < MAX_REQUESTS )
+			ops |= SelectionKey.OP_READ;
+		if ( !conn.outbound.isEmpty() )
+			ops |= SelectionKey.OP_WRITE;
+		key.interestOps(ops);
+	}
+	
+	/**
+	 * Returns a roster snapshot as a frame. The frame is only encoded for
+	 * the first connection that needs a version, the others get a view of
+	 * the same bytes.
+	 * @param snapshot - RosterSnapshot - Snapshot to send.
+	 * @return ByteBuffer - Ready to queue, with a position of its own.
+	 * @throws MarshalException if the roster is too big for one frame.
+	 */
+	synchronized ByteBuffer encode(RosterSnapshot snapshot) throws MarshalException{
+		if ( snapshot != rosterSnapshot ){
+			rosterFrame = new FrameWriter(Protocol.ROSTER_SNAPSHOT).putLong(snapshot.getVersion())
+					.putClients(snapshot.getClients()).finish();
+			rosterSnapshot = snapshot;
+		}
+		return rosterFrame.duplicate();
+	}
+	
+	/**
+	 * Closes a connection. Its client is dropped like one that stopped
+	 * answering.
+	 */
+	void close(NioConnection conn){
+		if ( !conn.markClosed() )
+			return;
+		
+		try {
+			conn.channel.close();
+		} catch (IOException e) {
+			// Gone anyway.
+		}
+		conn.outbound.clear();
+		server.disconnected(conn);
+	}
+	
+	/**
+	 * Looks at a connection again after it queued something to write or
+	 * finished a request. Frames left in its buffer at the request limit
+	 * are dispatched first.
+	 */
+	private void resume(NioConnection conn){
+		SelectionKey key = conn.channel.keyFor(selector);
+		
+		if ( key == null || !key.isValid() )
+			return;
+		
+		try {
+			if ( conn.in.position() > 0 && conn.requests.get() < MAX_REQUESTS )
+				decode(conn);
+			else
+				setInterest(conn);
+		} catch (IOException e) {
+			close(conn);
+		}
+	}
+	
+	private void read(NioConnection conn){
+		try {
+			if ( conn.channel.read(conn.in) < 0 ){
+				close(conn);
+				return;
+			}
+			conn.lastRead = System.currentTimeMillis();
+			decode(conn);
+		} catch (IOException e) {
+			close(conn);
+		}
+	}
+	
+	/**
+	 * Dispatches the complete frames in a connection's buffer while the
+	 * client has fewer than MAX_REQUESTS requests running. The rest stays
+	 * in the buffer until resume().
+	 */
+	private void decode(NioConnection conn) throws IOException{
+		ByteBuffer in = conn.in;
+		
+		in.flip();
+		while ( in.remaining() >= 4 && conn.requests.get() < MAX_REQUESTS ){
+			int length = in.getInt(in.position());
+			
+			if ( length < 1 || length > Protocol.MAX_FRAME )
+				throw new ProtocolException("Bad frame length " + length);
+			if ( in.remaining() < 4 + length ){
+				if ( in.capacity() < 4 + length ){
+					ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+					bigger.put(in);
+					conn.in = bigger;
+					setInterest(conn);
+					return;
+				}
+				break;
+			}
+			
+			in.getInt();
+			byte op = in.get();
+			byte [] body = new byte[length - 1];
+			in.get(body);
+			dispatch(conn, op, new FrameReader(ByteBuffer.wrap(body)));
+		}
+		in.compact();
+		setInterest(conn);
+	}
+	
+	private void write(NioConnection conn){
+		ByteBuffer [] frames = new ByteBuffer[GATHER];
+		
+		try {
+			while ( true ){
+				int n = 0;
+				for ( ByteBuffer frame : conn.outbound ){
+					frames[n++] = frame;
+					if ( n == GATHER )
+						break;
+				}
+				if ( n == 0 )
+					break;
+				
+				long wrote = conn.channel.write(frames, 0, n);
+				conn.written((int)wrote);
+				for ( int i=0; i<n && !frames[i].hasRemaining(); i++ )
+					conn.outbound.poll();
+				if ( frames[n-1].hasRemaining() )
+					break;
+			}
+			setInterest(conn);
+		} catch (IOException e) {
+			close(conn);
+		}
+	}
+	
+	/**
+	 * Hands a request to the connection's lane.
+	 */
+	private void dispatch(final NioConnection conn, final byte op, final FrameReader in) throws ProtocolException{
+		final int seq = in.getInt();
+		
+		conn.requests.incrementAndGet();
+		requests.doCallbackOn(conn, CallbackPriority.GAME, new Callback() {
+			public void executeCallback(Notifier n, Object arg) {
+				try {
+					FrameWriter reply = new FrameWriter(Protocol.REPLY).putInt(seq);
+					handle(conn, op, in, reply);
+					conn.push(reply);
+				} catch (Exception e) {
+					try {
+						conn.push(new FrameWriter(Protocol.ERROR).putInt(seq).putString(e.toString()));
+					} catch (Exception closed) {
+						// Nobody left to tell.
+					}
+				}
+				if ( conn.requests.decrementAndGet() == MAX_REQUESTS - 1 )
+					updateInterest(conn);
+				n.resetCallbackTime();
+			}
+		}, null);
+	}
+	
+	private game.multiplayer.interfaces.Game game(long id) throws NoSuchObjectException{
+		Remote session = sessions.lookup(id);
+		
+		if ( !(session instanceof game.multiplayer.interfaces.Game) )
+			throw new NoSuchObjectException("No game " + id);
+		return (game.multiplayer.interfaces.Game)session;
+	}
+	
+	private Invitation invitation(long id) throws NoSuchObjectException{
+		Remote session = sessions.lookup(id);
+		
+		if ( !(session instanceof Invitation) )
+			throw new NoSuchObjectException("No invitation " + id);
+		return (Invitation)session;
+	}
+	
+	/**
+	 * Runs one request and writes its result into the reply.
+	 */
+	private void handle(NioConnection conn, byte op, FrameReader in, FrameWriter reply) throws Exception{
+		long id;
+		
+		switch ( op ){
+		case Protocol.REGISTER:
+			server.register(conn, in.getClient(), in.getBoolean());
+			break;
+		case Protocol.REREGISTER:
+			server.reregister(in.getClient());
+			break;
+		case Protocol.CREATE_INVITE:
+			Invitation invitation = server.createInvite(new Invite(in.getClient(), in.getClients()));
+			reply.putLong(sessions.idOf(invitation));
+			break;
+		case Protocol.CREATE_GAME:
+			server.createGame(new Game(in.getClients()));
+			break;
+		case Protocol.POST_MESSAGE:
+			server.postMessage(in.getClient(), in.getString());
+			break;
+		case Protocol.JOIN_QUEUE:
+			server.joinQueue(in.getClient(), in.getInt(), in.getInt());
+			break;
+		case Protocol.LEAVE_QUEUE:
+			server.leaveQueue(in.getClient());
+			break;
+		case Protocol.PING:
+			conn.pong();
+			break;
+		case Protocol.GAME_REGISTER:
+			id = in.getLong();
+			Client player = in.getClient();
+			boolean connected = in.getBoolean();
+			game(id).register(player, conn.frame(id), connected);
+			if ( !connected )
+				conn.forgetFrame(id);
+			break;
+		case Protocol.GAME_UPDATE_SCORE:
+			game(in.getLong()).updateScore(in.getClient(), in.getInt());
+			break;
+		case Protocol.GAME_SUBMIT_WORD:
+			id = in.getLong();
+			game.multiplayer.interfaces.Game g = game(id);
+			if ( !(g instanceof WordGame) )
+				throw new NoSuchObjectException("Game " + id + " takes no words");
+			reply.putInt(((WordGame)g).submitWord(in.getClient(), in.getString()));
+			break;
+		case Protocol.GAME_WIN:
+			game(in.getLong()).winGame(in.getClient());
+			break;
+		case Protocol.GAME_GET:
+			reply.putClients(game(in.getLong()).getGame().getPlayers());
+			break;
+		case Protocol.INVITE_INITIALIZE:
+			invitation(in.getLong()).initializeGame(in.getBoolean());
+			break;
+		case Protocol.INVITE_DECIDE:
+			invitation(in.getLong()).makeDecision(in.getClient(), in.getBoolean());
+			break;
+		case Protocol.INVITE_GET:
+			Invite invite = invitation(in.getLong()).getInvite();
+			reply.putClient(invite.getHost()).putClients(invite.getInvitees());
+			break;
+		case Protocol.INVITE_READY:
+			reply.putBoolean(invitation(in.getLong()).ready());
+			break;
+		default:
+			throw new ProtocolException("Unknown request " + op);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * NioLoopbackClient.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+
+import game.multiplayer.containers.Client;
+
+/**
+ * A bare, blocking client of the NioEndpoint. It makes one call at a time
+ * and waits for its REPLY, answers the server's pings on the way and skips
+ * every other push.
+ * 
+ * Its main() is a manual smoke test: run by hand against a server that is
+ * already up, it logs a player in, times one PING and logs it out. Nothing
+ * in the build runs it, and it does not look at the pushes, so it only
+ * shows that the endpoint accepts, decodes and answers calls.
+ * @author Chris Barton
+ */
+public class NioLoopbackClient {
+	private final SocketChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(4);
+	private int seq = 0;
+	
+	/**
+	 * Constructor, connects to the endpoint.
+	 * @param host - String - Host of the server.
+	 * @param port - int - Port of its NioEndpoint.
+	 * @throws IOException if the server cannot be reached.
+	 */
+	public NioLoopbackClient(String host, int port) throws IOException{
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+	}
+	
+	/**
+	 * Starts a request, the sequence number is already in it.
+	 * @param op - byte - Opcode of the request.
+	 * @return FrameWriter - Put the arguments in and pass it to call().
+	 */
+	public FrameWriter request(byte op){
+		return new FrameWriter(op).putInt(++seq);
+	}
+	
+	/**
+	 * Sends a request and waits for its answer.
+	 * @param request - FrameWriter - From request().
+	 * @return FrameReader - The REPLY after its sequence number.
+	 * @throws RemoteException if the server answered with an ERROR.
+	 * @throws IOException if the connection failed.
+	 */
+	public FrameReader call(FrameWriter request) throws IOException{
+		send(request);
+		
+		while ( true ){
+			ByteBuffer frame = readFrame();
+			byte op = frame.get();
+			FrameReader in = new FrameReader(frame);
+			
+			if ( op == Protocol.SERVER_PING ){
+				send(new FrameWriter(Protocol.PING).putInt(0));
+			} else if ( op == Protocol.REPLY || op == Protocol.ERROR ){
+				if ( in.getInt() != seq )
+					continue;
+				if ( op == Protocol.ERROR )
+					throw new RemoteException(in.getString());
+				return in;
+			}
+		}
+	}
+	
+	/**
+	 * Makes a PING call.
+	 * @return long - Round trip in nanoseconds.
+	 * @throws IOException if the connection failed.
+	 */
+	public long ping() throws IOException{
+		long start = System.nanoTime();
+		call(request(Protocol.PING));
+		return System.nanoTime() - start;
+	}
+	
+	/**
+	 * Registers a player, as a client does when it logs in or out.
+	 * @param client - Client - Player to register.
+	 * @param connected - boolean - true to log in.
+	 * @throws IOException if the connection failed or the server refused.
+	 */
+	public void register(Client client, boolean connected) throws IOException{
+		call(request(Protocol.REGISTER).putClient(client).putBoolean(connected));
+	}
+	
+	public void close() throws IOException{
+		channel.close();
+	}
+	
+	private void send(FrameWriter frame) throws IOException{
+		ByteBuffer bytes = frame.finish();
+		
+		while ( bytes.hasRemaining() )
+			channel.write(bytes);
+	}
+	
+	private ByteBuffer readFrame() throws IOException{
+		header.clear();
+		fill(header);
+		int length = header.getInt(0);
+		
+		if ( length < 1 || length > Protocol.MAX_FRAME )
+			throw new ProtocolException("Bad frame length " + length);
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		fill(frame);
+		frame.flip();
+		return frame;
+	}
+	
+	private void fill(ByteBuffer buffer) throws IOException{
+		while ( buffer.hasRemaining() )
+			if ( channel.read(buffer) < 0 )
+				throw new EOFException("Server closed the connection");
+	}
+	
+	/**
+	 * Connects to a server, registers a player, makes a PING call and
+	 * logs the player out again. Exits with an exception if any of it
+	 * fails.
+	 */
+	public static void main(String [] args) throws IOException{
+		if ( args.length < 2 ){
+			System.err.println("Usage: NioLoopbackClient <host> <port> [player]");
+			System.exit(1);
+		}
+		
+		NioLoopbackClient client = new NioLoopbackClient(args[0], Integer.parseInt(args[1]));
+		Client player = new Client(args.length > 2 ? args[2] : "loopback");
+		try {
+			client.register(player, true);
+			long rtt = client.ping();
+			client.register(player, false);
+			System.out.println("Round trip " + (rtt / 1000) + " us");
+		} finally {
+			client.close();
+		}
+	}
+}
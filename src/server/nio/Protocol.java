@@ -0,0 +1,118 @@
+/*
+ * Protocol.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.nio;
+
+/**
+ * The binary protocol of the NioEndpoint. Every frame is an int with the
+ * length of the rest of the frame, a byte with the opcode and the body.
+ * Ints and longs are big endian, booleans one byte, strings an int length
+ * followed by that many bytes of UTF-8. A Client is its name and a byte
+ * with the ordinal of its PlayerState (-1 for none), a list is an int
+ * count followed by its elements.
+ * 
+ * Requests mirror the WordMoleServer, Game, Invitation and Matchmaker
+ * calls. Their body starts with an int sequence number, which the REPLY
+ * or ERROR for the request carries back. Games and invitations are named
+ * by their session id, a long. Pushes mirror the WordMoleClient and
+ * MultiplayerGameFrame calls and are not answered; a SERVER_PING is
+ * answered with a PING request.
+ * @author Chris Barton
+ */
+public final class Protocol {
+	private Protocol(){}
+	
+	/** Largest frame either side may send. */
+	public static final int MAX_FRAME = 1 << 20;
+	
+	// Requests: client to server, after the sequence number
+	/** Client, boolean connected */
+	public static final byte REGISTER = 1;
+	/** Client */
+	public static final byte REREGISTER = 2;
+	/** Client host, Client[] invitees; replies with the invitation id */
+	public static final byte CREATE_INVITE = 3;
+	/** Client[] players */
+	public static final byte CREATE_GAME = 4;
+	/** Client sender, String message */
+	public static final byte POST_MESSAGE = 5;
+	/** Client, int players, int rating */
+	public static final byte JOIN_QUEUE = 6;
+	/** Client */
+	public static final byte LEAVE_QUEUE = 7;
+	/** Nothing */
+	public static final byte PING = 8;
+	/** long game, Client, boolean connected */
+	public static final byte GAME_REGISTER = 20;
+	/** long game, Client, int score */
+	public static final byte GAME_UPDATE_SCORE = 21;
+	/** long game, Client, String word; replies with the points */
+	public static final byte GAME_SUBMIT_WORD = 22;
+	/** long game, Client winner */
+	public static final byte GAME_WIN = 23;
+	/** long game; replies with the players */
+	public static final byte GAME_GET = 24;
+	/** long invitation, boolean initialize */
+	public static final byte INVITE_INITIALIZE = 30;
+	/** long invitation, Client, boolean decision */
+	public static final byte INVITE_DECIDE = 31;
+	/** long invitation; replies with the host and the invitees */
+	public static final byte INVITE_GET = 32;
+	/** long invitation; replies with a boolean */
+	public static final byte INVITE_READY = 33;
+	
+	// Answers: server to client
+	/** int sequence, then the result if the call has one */
+	public static final byte REPLY = 64;
+	/** int sequence, String error */
+	public static final byte ERROR = 65;
+	
+	// Pushes: server to client
+	/** Client[] */
+	public static final byte CLIENT_LIST = 80;
+	/** long version, Client[] */
+	public static final byte ROSTER_SNAPSHOT = 81;
+	/** long from, then a count and for each change byte type, Client, long version */
+	public static final byte ROSTER_DELTA = 82;
+	/** String text */
+	public static final byte DISPLAY_MESSAGE = 83;
+	/** long game, Client[] players */
+	public static final byte RECEIVE_GAME = 84;
+	/** long invitation, Client host, Client[] invitees */
+	public static final byte RECEIVE_INVITE = 85;
+	/** Client, boolean decision */
+	public static final byte INVITE_DECISION = 86;
+	/** Nothing */
+	public static final byte CANCEL_INVITE = 87;
+	/** Nothing, answer with a PING request */
+	public static final byte SERVER_PING = 88;
+	/** long game */
+	public static final byte START_GAME = 96;
+	/** long game, Client */
+	public static final byte DISCONNECT_PLAYER = 97;
+	/** long game, Client, int score */
+	public static final byte UPDATE_SCORE = 98;
+	/** long game, Client[], then a count and the scores */
+	public static final byte UPDATE_SCORES = 99;
+	/** long game, Client winner */
+	public static final byte NOTIFY_WINNER = 100;
+}
@@ -0,0 +1,155 @@
+/*
+ * BlockInputStream.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.rmi;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the blocks written by a BlockOutputStream.
+ * @author Chris Barton
+ */
+final class BlockInputStream extends FilterInputStream {
+	private final Inflater inflater = new Inflater();
+	private final DataInputStream data;
+	private final SocketStats stats;
+	private byte [] buf = new byte[8192];
+	private byte [] packed = new byte[8192];
+	private int pos = 0;
+	private int limit = 0;
+	
+	BlockInputStream(InputStream in, SocketStats stats){
+		super(in);
+		data = new DataInputStream(in);
+		this.stats = stats;
+	}
+	
+	public int read() throws IOException{
+		if ( pos == limit && !fill() )
+			return -1;
+		return buf[pos++] & 0xff;
+	}
+	
+	public int read(byte [] b, int off, int len) throws IOException{
+		if ( len == 0 )
+			return 0;
+		if ( pos == limit && !fill() )
+			return -1;
+		
+		int n = Math.min(len, limit - pos);
+		System.arraycopy(buf, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+	
+	public long skip(long n) throws IOException{
+		if ( n <= 0 || (pos == limit && !fill()) )
+			return 0;
+		
+		int skipped = (int)Math.min(n, limit - pos);
+		pos += skipped;
+		return skipped;
+	}
+	
+	public int available(){
+		return limit - pos;
+	}
+	
+	public boolean markSupported(){
+		return false;
+	}
+	
+	public void close() throws IOException{
+		inflater.end();
+		in.close();
+	}
+	
+	/**
+	 * Reads the next block.
+	 * @return false at the end of the stream.
+	 */
+	private boolean fill() throws IOException{
+		do {
+			int type = in.read();
+			if ( type < 0 )
+				return false;
+			
+			int length = readLength();
+			if ( buf.length < length )
+				buf = new byte[length];
+			
+			if ( type == BlockOutputStream.RAW ){
+				data.readFully(buf, 0, length);
+				stats.received(length, length + 5);
+			} else if ( type == BlockOutputStream.DEFLATED ){
+				int n = readLength();
+				if ( packed.length < n )
+					packed = new byte[n];
+				data.readFully(packed, 0, n);
+				inflate(n, length);
+				stats.received(length, n + 9);
+			} else
+				throw new IOException("Unknown block type " + type);
+			
+			pos = 0;
+			limit = length;
+		} while ( limit == 0 );
+		return true;
+	}
+	
+	private int readLength() throws IOException{
+		int length;
+		
+		try {
+			length = data.readInt();
+		} catch (EOFException e) {
+			throw new IOException("Truncated block");
+		}
+		if ( length < 0 || length > BlockOutputStream.MAX_BLOCK )
+			throw new IOException("Bad block length " + length);
+		return length;
+	}
+	
+	private void inflate(int packedLength, int length) throws IOException{
+		inflater.reset();
+		inflater.setInput(packed, 0, packedLength);
+		try {
+			int n = 0;
+			while ( n < length && !inflater.finished() ){
+				int got = inflater.inflate(buf, n, length - n);
+				if ( got == 0 && (inflater.needsInput() || inflater.needsDictionary()) )
+					break;
+				n += got;
+			}
+			if ( n != length )
+				throw new IOException("Bad deflated block");
+		} catch (DataFormatException e) {
+			throw new IOException("Bad deflated block: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * BlockOutputStream.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.rmi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Collects what is written until the next flush and sends it as one
+ * block. Blocks of at least the threshold are deflated if that makes them
+ * smaller, small ones go as they are, so a short call does not pay for
+ * compression. RMI flushes after every call and every return, so a block
+ * is one message or a part of a large one.
+ * 
+ * A block is a type byte (RAW or DEFLATED) and an int with its length,
+ * and for a deflated block another int with the deflated length, followed
+ * by the bytes.
+ * @author Chris Barton
+ */
+final class BlockOutputStream extends FilterOutputStream {
+	static final int RAW = 0;
+	static final int DEFLATED = 1;
+	/** Largest block, bigger writes are split. */
+	static final int MAX_BLOCK = 64 * 1024;
+	
+	// The headers are filled in in front of the bytes so a block is one write.
+	private static final int RAW_HEADER = 5;
+	private static final int DEFLATED_HEADER = 9;
+	
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final int threshold;
+	private final SocketStats stats;
+	private byte [] buf = new byte[8192];
+	private byte [] packed = new byte[8192];
+	private int count = 0;		// bytes in buf after the header
+	
+	BlockOutputStream(OutputStream out, int threshold, SocketStats stats){
+		super(out);
+		this.threshold = threshold;
+		this.stats = stats;
+	}
+	
+	private void ensure(int bytes){
+		int needed = RAW_HEADER + count + bytes;
+		
+		if ( needed > buf.length ){
+			byte [] bigger = new byte[Math.min(RAW_HEADER + MAX_BLOCK, Math.max(buf.length * 2, needed))];
+			System.arraycopy(buf, RAW_HEADER, bigger, RAW_HEADER, count);
+			buf = bigger;
+		}
+	}
+	
+	public void write(int b) throws IOException{
+		if ( count == MAX_BLOCK )
+			writeBlock();
+		ensure(1);
+		buf[RAW_HEADER + count++] = (byte)b;
+	}
+	
+	public void write(byte [] b, int off, int len) throws IOException{
+		while ( len > 0 ){
+			if ( count == MAX_BLOCK )
+				writeBlock();
+			
+			int n = Math.min(len, MAX_BLOCK - count);
+			ensure(n);
+			System.arraycopy(b, off, buf, RAW_HEADER + count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	public void flush() throws IOException{
+		writeBlock();
+		out.flush();
+	}
+	
+	public void close() throws IOException{
+		try {
+			flush();
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+	
+	private void writeBlock() throws IOException{
+		if ( count == 0 )
+			return;
+		
+		if ( count >= threshold ){
+			int n = deflate();
+			
+			if ( n < count ){
+				packed[0] = DEFLATED;
+				putInt(packed, 1, count);
+				putInt(packed, 5, n);
+				out.write(packed, 0, DEFLATED_HEADER + n);
+				stats.sent(count, DEFLATED_HEADER + n);
+				count = 0;
+				return;
+			}
+		}
+		
+		buf[0] = RAW;
+		putInt(buf, 1, count);
+		out.write(buf, 0, RAW_HEADER + count);
+		stats.sent(count, RAW_HEADER + count);
+		count = 0;
+	}
+	
+	/**
+	 * Deflates the block into packed, giving up once it is no smaller.
+	 * @return length of the deflated block, at least count if it did not pay.
+	 */
+	private int deflate(){
+		int n = 0;
+		
+		if ( packed.length < DEFLATED_HEADER + count )
+			packed = new byte[DEFLATED_HEADER + buf.length];
+		
+		deflater.reset();
+		deflater.setInput(buf, RAW_HEADER, count);
+		deflater.finish();
+		while ( !deflater.finished() && n < count )
+			n += deflater.deflate(packed, DEFLATED_HEADER + n, count - n);
+		return deflater.finished() ? n : count;
+	}
+	
+	private static void putInt(byte [] b, int off, int v){
+		b[off] = (byte)(v >>> 24);
+		b[off+1] = (byte)(v >>> 16);
+		b[off+2] = (byte)(v >>> 8);
+		b[off+3] = (byte)v;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * CompressedSocket.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.rmi;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A socket whose streams go through a BlockOutputStream and a
+ * BlockInputStream. Both ends of a connection have to use it.
+ * @author Chris Barton
+ */
+final class CompressedSocket extends Socket {
+	private final int threshold;
+	private final SocketStats stats;
+	private InputStream in;
+	private OutputStream out;
+	
+	CompressedSocket(int threshold, SocketStats stats){
+		this.threshold = threshold;
+		this.stats = stats;
+	}
+	
+	public synchronized InputStream getInputStream() throws IOException{
+		if ( in == null )
+			in = new BlockInputStream(new BufferedInputStream(super.getInputStream()), stats);
+		return in;
+	}
+	
+	public synchronized OutputStream getOutputStream() throws IOException{
+		if ( out == null )
+			out = new BlockOutputStream(super.getOutputStream(), threshold, stats);
+		return out;
+	}
+}
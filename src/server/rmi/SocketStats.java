@@ -0,0 +1,68 @@
+/*
+ * SocketStats.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte counts of the compressed RMI sockets: what RMI wrote and read,
+ * and what actually went over the wire.
+ * @author Chris Barton
+ */
+public class SocketStats {
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong sentOnWire = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong receivedOnWire = new AtomicLong();
+	
+	void sent(int bytes, int onWire){
+		sent.addAndGet(bytes);
+		sentOnWire.addAndGet(onWire);
+	}
+	
+	void received(int bytes, int onWire){
+		received.addAndGet(bytes);
+		receivedOnWire.addAndGet(onWire);
+	}
+	
+	public long getSent(){
+		return sent.get();
+	}
+	
+	public long getSentOnWire(){
+		return sentOnWire.get();
+	}
+	
+	public long getReceived(){
+		return received.get();
+	}
+	
+	public long getReceivedOnWire(){
+		return receivedOnWire.get();
+	}
+	
+	public String toString(){
+		return "sent " + getSent() + " bytes as " + getSentOnWire()
+			+ ", received " + getReceived() + " bytes as " + getReceivedOnWire();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * TunedSocketFactory.java
+ * Copyright (C) 2010  Chris Barton
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *   
+ *   Questions/Comments: c.chris.b@gmail.com
+ *   WordMole is available free at http://wordmole.sourceforge.net/
+ */
+
+
+package server.rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Socket factory for the exported server objects. Its sockets have Nagle
+ * turned off, since RMI calls are small and every one waits for an answer,
+ * and bigger buffers for the player list fan-out. With compression on,
+ * every message of at least COMPRESS_THRESHOLD bytes is deflated.
+ * 
+ * The factory goes to the clients inside the stubs, so they need this
+ * package, e.g. from the codebase. That is why it is off by default:
+ * -Dwordmole.rmiSockets=tuned turns on the socket options and
+ * -Dwordmole.rmiSockets=compressed compression as well. The registry
+ * always uses plain sockets so clients can find the server either way.
+ * getStats() counts the bytes saved by compression.
+ * @author Chris Barton
+ */
+public class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	/** Socket buffer size. */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	/** Smallest message that is deflated. */
+	public static final int COMPRESS_THRESHOLD = 512;
+	
+	private static final SocketStats stats = new SocketStats();
+	private static final TunedSocketFactory configured = configure(System.getProperty("wordmole.rmiSockets", "default"));
+	
+	private final boolean compress;
+	private final int bufferSize;
+	private final int threshold;
+	
+	/**
+	 * Constructor
+	 * @param compress - boolean - true to deflate large messages.
+	 * @param bufferSize - int - Socket buffer size.
+	 * @param threshold - int - Smallest message that is deflated.
+	 */
+	public TunedSocketFactory(boolean compress, int bufferSize, int threshold){
+		this.compress = compress;
+		this.bufferSize = bufferSize;
+		this.threshold = threshold;
+	}
+	
+	private static TunedSocketFactory configure(String mode){
+		if ( mode.equals("tuned") )
+			return new TunedSocketFactory(false, BUFFER_SIZE, COMPRESS_THRESHOLD);
+		if ( mode.equals("compressed") )
+			return new TunedSocketFactory(true, BUFFER_SIZE, COMPRESS_THRESHOLD);
+		if ( !mode.equals("default") )
+			System.err.println("Unknown wordmole.rmiSockets " + mode + ", using default sockets");
+		return null;
+	}
+	
+	/**
+	 * Returns the factory chosen with wordmole.rmiSockets.
+	 * @return TunedSocketFactory, null for the default sockets.
+	 */
+	public static TunedSocketFactory getConfigured(){
+		return configured;
+	}
+	
+	/**
+	 * Exports an object with the configured sockets.
+	 * @param object - Remote - Object to export.
+	 * @return Remote - its stub.
+	 * @throws RemoteException if the object cannot be exported.
+	 */
+	public static Remote export(Remote object) throws RemoteException{
+		return UnicastRemoteObject.exportObject(object, 0, configured, configured);
+	}
+	
+	/**
+	 * Returns the byte counts of the compressed sockets in this VM.
+	 * @return SocketStats
+	 */
+	public static SocketStats getStats(){
+		return stats;
+	}
+	
+	public boolean isCompressing(){
+		return compress;
+	}
+	
+	private Socket newSocket() throws IOException{
+		Socket socket = compress ? new CompressedSocket(threshold, stats) : new Socket();
+		
+		socket.setReceiveBufferSize(bufferSize);
+		socket.setSendBufferSize(bufferSize);
+		return socket;
+	}
+	
+	public Socket createSocket(String host, int port) throws IOException{
+		Socket socket = newSocket();
+		
+		socket.connect(new InetSocketAddress(host, port));
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+	
+	public ServerSocket createServerSocket(int port) throws IOException{
+		ServerSocket server = new ServerSocket(){
+			public Socket accept() throws IOException{
+				Socket socket = newSocket();
+				
+				implAccept(socket);
+				socket.setTcpNoDelay(true);
+				return socket;
+			}
+		};
+		server.setReceiveBufferSize(bufferSize);
+		server.bind(new InetSocketAddress(port));
+		return server;
+	}
+	
+	/**
+	 * Factories that make the same sockets are equal, which lets RMI share
+	 * ports and connections between objects exported with them.
+	 */
+	public boolean equals(Object o){
+		if ( !(o instanceof TunedSocketFactory) )
+			return false;
+		
+		TunedSocketFactory f = (TunedSocketFactory)o;
+		return compress == f.compress && bufferSize == f.bufferSize && threshold == f.threshold;
+	}
+	
+	public int hashCode(){
+		return (compress ? 1 : 0) + 31 * (bufferSize + 31 * threshold);
+	}
+	
+	public String toString(){
+		return compress ? "compressed sockets" : "tuned sockets";
+	}
+}